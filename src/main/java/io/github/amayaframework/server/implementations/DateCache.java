@@ -0,0 +1,43 @@
+package io.github.amayaframework.server.implementations;
+
+import io.github.amayaframework.server.utils.Formats;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+/**
+ * The Date header line of responses, encoded to bytes at most once per second. The dispatchers
+ * refresh it as their clock advances, and readers refresh it themselves if it has expired meanwhile.
+ */
+class DateCache {
+    private volatile Entry current;
+
+    DateCache() {
+        current = new Entry(System.currentTimeMillis());
+    }
+
+    void update(long now) {
+        if (now >= current.expires) {
+            current = new Entry(now);
+        }
+    }
+
+    /**
+     * @return the bytes of the whole header line, including the CRLF, which must not be modified
+     */
+    byte[] headerLine() {
+        update(System.currentTimeMillis());
+        return current.line;
+    }
+
+    private static final class Entry {
+        private final byte[] line;
+        private final long expires;
+
+        private Entry(long now) {
+            String line = "Date: " + Formats.formatDate(new Date(now)) + "\r\n";
+            this.line = line.getBytes(StandardCharsets.ISO_8859_1);
+            this.expires = (now / 1000 + 1) * 1000;
+        }
+    }
+}
@@ -28,18 +28,17 @@ package io.github.amayaframework.server.implementations;
 import io.github.amayaframework.http.HeaderMap;
 import io.github.amayaframework.http.HttpCode;
 import io.github.amayaframework.http.HttpHeaderMap;
-import io.github.amayaframework.http.HttpUtil;
 import io.github.amayaframework.server.events.WriteFinishedEvent;
 import io.github.amayaframework.server.interfaces.HttpContext;
 import io.github.amayaframework.server.interfaces.HttpExchange;
 import io.github.amayaframework.server.streams.*;
-import io.github.amayaframework.server.utils.Formats;
+import io.github.amayaframework.server.utils.QueryParameters;
+import io.github.amayaframework.server.utils.RequestMethod;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLSession;
-import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -47,24 +46,39 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ExchangeImpl implements HttpExchange {
-    private static final String HEAD = "HEAD";
     private final Logger logger = LoggerFactory.getLogger(ExchangeImpl.class);
-    private final HeaderMap requestHeaders;
     private final HeaderMap responseHeaders;
     private final Request request;
-    private final String method;
-    private final URI uri;
+    private final RequestMethod method;
     private final HttpConnection connection;
     private final long requestContentLength;
     private final InputStream requestInputStream;
     private final OutputStream requestOutputStream;
+    /* copied from the request, whose state is reused by the next request of the connection */
+    private final String target;
+    private final String rawPath;
+    private final String rawQuery;
+    private final String protocol;
+    /* the read-only view of the parsed request headers, it fails once the request is reused */
+    private final HeaderMap requestHeaders;
+    /* the handler and the response writer, the request is reused once both are done with it */
+    private final AtomicInteger requestUsers = new AtomicInteger(2);
+    /* a response may raise more than one WriteFinishedEvent, only the first one completes it */
+    private final AtomicBoolean responseWritten = new AtomicBoolean();
     private boolean writeFinished;
     private boolean closed;
     private boolean close;
     private boolean http10;
+    /* the position of the request among the requests of the connection, -1 if not sequenced */
+    private long ticket = -1;
+    /* set if the connection was handed over to the next pipelined request while this one ran */
+    private boolean pipelined;
     private InputStream inputStream;
     private OutputStream outputStream;
     private LeftOverInputStream origInputStream;
@@ -72,18 +86,24 @@ public class ExchangeImpl implements HttpExchange {
     private boolean sentHeaders;
     private Map<String, Object> attributes;
     private HttpCode code;
-    private byte[] responseBuffer = new byte[128];
+    /* built from the target on the first call */
+    private URI uri;
+    private QueryParameters queryParameters;
 
-    public ExchangeImpl(String method, URI uri, Request request, long length, HttpConnection connection) {
+    public ExchangeImpl(RequestMethod method, Request request, long length, HttpConnection connection)
+            throws IOException {
         this.request = request;
-        this.requestHeaders = request.headers;
         this.responseHeaders = new HttpHeaderMap();
         this.method = method;
-        this.uri = uri;
         this.connection = connection;
         this.requestContentLength = length;
         this.requestOutputStream = request.outputStream();
         this.requestInputStream = request.inputStream();
+        this.target = request.target();
+        this.rawPath = request.rawPath();
+        this.rawQuery = request.rawQuery();
+        this.protocol = request.version();
+        this.requestHeaders = request.headers();
         connection.getServer().startExchange();
     }
 
@@ -105,7 +125,7 @@ public class ExchangeImpl implements HttpExchange {
 
     @Override
     public HeaderMap getRequestHeaders() {
-        return HttpUtil.unmodifiableHeaderMap(requestHeaders);
+        return requestHeaders;
     }
 
     @Override
@@ -115,11 +135,37 @@ public class ExchangeImpl implements HttpExchange {
 
     @Override
     public URI getRequestURI() {
+        if (uri == null) {
+            uri = Request.uri(target);
+        }
         return uri;
     }
 
+    @Override
+    public String getRawPath() {
+        return rawPath;
+    }
+
+    @Override
+    public String getRawQuery() {
+        return rawQuery;
+    }
+
+    @Override
+    public QueryParameters getQueryParameters() {
+        if (queryParameters == null) {
+            queryParameters = new QueryParameters(rawQuery);
+        }
+        return queryParameters;
+    }
+
     @Override
     public String getRequestMethod() {
+        return method.getName();
+    }
+
+    @Override
+    public RequestMethod getMethod() {
         return method;
     }
 
@@ -129,7 +175,7 @@ public class ExchangeImpl implements HttpExchange {
     }
 
     private boolean isHeadRequest() {
-        return HEAD.equals(method);
+        return method == RequestMethod.HEAD;
     }
 
     @Override
@@ -193,54 +239,86 @@ public class ExchangeImpl implements HttpExchange {
         return origOutputStream;
     }
 
-    private byte[] bytes(String s, int extra) {
-        int length = s.length();
-        if (length + extra > responseBuffer.length) {
-            int diff = length + extra - responseBuffer.length;
-            responseBuffer = new byte[2 * (responseBuffer.length + diff)];
+    @Override
+    public void sendResponseHeaders(HttpCode code, long responseLength) throws IOException {
+        ResponseBuffer out = startResponse(code);
+        boolean noContentToSend = writeHead(code, responseLength, out);
+        if (noContentToSend) {
+            out.flush();
+        }
+        /* otherwise the head goes out with the first body bytes */
+        headSent(noContentToSend);
+    }
+
+    @Override
+    public void sendResponse(HttpCode code, byte[] body) throws IOException {
+        sendResponse(code, ByteBuffer.wrap(body));
+    }
+
+    @Override
+    public void sendResponse(HttpCode code, ByteBuffer body) throws IOException {
+        int length = body.remaining();
+        /* the head and a body that fits are collected and written to the connection on close */
+        ResponseBuffer out = startResponse(code);
+        long responseLength = length == 0 ? -1 : length;
+        if (isHeadRequest()) {
+            /* the body is not sent, but its length is */
+            responseHeaders.set("Content-length", Integer.toString(length));
+            responseLength = -1;
         }
-        char[] c = s.toCharArray();
-        for (int i = 0; i < c.length; i++) {
-            responseBuffer[i] = (byte) c[i];
+        boolean noContentToSend = writeHead(code, responseLength, out);
+        if (noContentToSend) {
+            out.flush();
+            headSent(true);
+            return;
         }
-        return responseBuffer;
-    }
-
-    private void write(HeaderMap map, OutputStream os) throws IOException {
-        Set<Map.Entry<String, List<String>>> entries = map.entrySet();
-        for (Map.Entry<String, List<String>> entry : entries) {
-            String key = entry.getKey();
-            byte[] buf;
-            List<String> values = entry.getValue();
-            for (String val : values) {
-                int i = key.length();
-                buf = bytes(key, 2);
-                buf[i++] = ':';
-                buf[i++] = ' ';
-                os.write(buf, 0, i);
-                buf = bytes(val, 2);
-                i = val.length();
-                buf[i++] = '\r';
-                buf[i++] = '\n';
-                os.write(buf, 0, i);
-            }
+        headSent(false);
+        OutputStream o = getResponseBody();
+        if (body.hasArray()) {
+            o.write(body.array(), body.arrayOffset() + body.position(), length);
+            body.position(body.limit());
+        } else {
+            byte[] bytes = new byte[length];
+            body.get(bytes);
+            o.write(bytes);
         }
-        os.write('\r');
-        os.write('\n');
+        close();
     }
 
-    @Override
-    public void sendResponseHeaders(HttpCode code, long responseLength) throws IOException {
+    /*
+     * Waits for the turn of this exchange on the connection, the response buffer
+     * of the connection is free from then on.
+     */
+    private ResponseBuffer startResponse(HttpCode code) throws IOException {
         if (sentHeaders) {
             throw new IOException("headers already sent");
         }
         this.code = Objects.requireNonNull(code);
-        String statusLine = "HTTP/1.1 " + code.getCode() + " " + code.getMessage() + "\r\n";
-        OutputStream tempOut = new BufferedOutputStream(requestOutputStream);
+        if (ticket >= 0) {
+            connection.getSequencer().await(ticket);
+        }
+        return connection.getResponseBuffer().start(requestOutputStream);
+    }
+
+    /*
+     * Writes the status line and headers, and sets up the stream of the response body.
+     * Fixed length and http/1.0 bodies are coalesced in the response buffer after the head,
+     * chunked bodies are buffered by their own stream. Returns true if no body may be sent.
+     */
+    private boolean writeHead(HttpCode code, long responseLength, ResponseBuffer out)
+            throws IOException {
         PlaceholderOutputStream o = getPlaceholderResponseBody();
-        tempOut.write(bytes(statusLine, 0), 0, statusLine.length());
+        out.write(StatusLines.of(code));
         boolean noContentToSend = false; // assume there is content
-        responseHeaders.set("Date", Formats.formatDate(new Date()));
+        boolean chunked = false;
+        /* the cached line replaces any Date header set by the handler */
+        responseHeaders.remove("Date");
+        out.write(getServer().getDateCache().headerLine());
+        if (getServer().isTerminating()) {
+            /* the server is stopping, no further requests are served on this connection */
+            close = true;
+            responseHeaders.set("Connection", "close");
+        }
 
         /* check for response type that is not allowed to send a body */
 
@@ -263,10 +341,11 @@ public class ExchangeImpl implements HttpExchange {
             noContentToSend = true;
         } else if (responseLength == 0) {
             if (http10) {
-                o.setWrappedStream(new UndefLengthOutputStream(this, requestOutputStream));
+                o.setWrappedStream(new UndefLengthOutputStream(this, out));
             } else {
                 responseHeaders.set("Transfer-encoding", "chunked");
                 o.setWrappedStream(new ChunkedOutputStream(this, requestOutputStream));
+                chunked = true;
             }
         } else {
             if (responseLength == -1) {
@@ -274,12 +353,21 @@ public class ExchangeImpl implements HttpExchange {
                 responseLength = 0;
             }
             responseHeaders.set("Content-length", Long.toString(responseLength));
-            o.setWrappedStream(new FixedLengthOutputStream(this, requestOutputStream, responseLength));
+            o.setWrappedStream(new FixedLengthOutputStream(this, out, responseLength));
         }
-        write(responseHeaders, tempOut);
-        tempOut.flush();
+        out.writeHeaders(responseHeaders);
+        if (chunked) {
+            out.flush();
+        }
+        return noContentToSend;
+    }
+
+    private void headSent(boolean noContentToSend) throws IOException {
         sentHeaders = true;
         if (noContentToSend) {
+            /* the exchange is complete, the connection stays usable if the request body can be drained */
+            getRequestBody();
+            origInputStream.close();
             WriteFinishedEvent e = new WriteFinishedEvent(this);
             connection.getServer().addEvent(e);
             closed = true;
@@ -309,9 +397,7 @@ public class ExchangeImpl implements HttpExchange {
 
     @Override
     public String getProtocol() {
-        String requestLine = request.requestLine();
-        int index = requestLine.lastIndexOf(' ');
-        return requestLine.substring(index + 1);
+        return protocol;
     }
 
     @Override
@@ -362,6 +448,37 @@ public class ExchangeImpl implements HttpExchange {
         this.http10 = http10;
     }
 
+    long getTicket() {
+        return ticket;
+    }
+
+    void setTicket(long ticket) {
+        this.ticket = ticket;
+    }
+
+    boolean isPipelined() {
+        return pipelined;
+    }
+
+    void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+    /*
+     * Called when the handler has returned and when the response has been written,
+     * the request state goes back to the connection after both.
+     */
+    void releaseRequest() {
+        if (requestUsers.decrementAndGet() == 0) {
+            connection.releaseRequest(request);
+        }
+    }
+
+    /* called for every WriteFinishedEvent of the exchange, true only for the first one */
+    boolean responseWritten() {
+        return responseWritten.compareAndSet(false, true);
+    }
+
     public boolean isClose() {
         return close;
     }
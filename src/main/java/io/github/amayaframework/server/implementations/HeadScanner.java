@@ -0,0 +1,52 @@
+package io.github.amayaframework.server.implementations;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Finds the end of a request head in the bytes buffered for a connection.
+ * Scanning resumes where the previous call stopped, so every byte is looked at once
+ * however the head is split across reads. Blank lines before the request line are skipped,
+ * as the request parser does.
+ */
+class HeadScanner {
+    private final static byte CR = 13;
+    private final static byte LF = 10;
+    /* number of bytes after the buffer position which were already scanned */
+    private int scanned;
+    private int lineLength;
+    private boolean requestLine;
+
+    /**
+     * Scans the buffered bytes not seen yet.
+     *
+     * @param buffer the buffer in read mode, its position must not move between calls until reset
+     * @return true if the buffer holds a complete request head
+     */
+    boolean scan(ByteBuffer buffer) {
+        byte[] bytes = buffer.array();
+        int offset = buffer.arrayOffset();
+        int start = buffer.position();
+        int end = buffer.limit();
+        for (int i = start + scanned; i < end; ++i) {
+            byte b = bytes[offset + i];
+            if (b == LF) {
+                if (lineLength == 0 && requestLine) {
+                    scanned = i + 1 - start;
+                    return true;
+                }
+                requestLine |= lineLength != 0;
+                lineLength = 0;
+            } else if (b != CR) {
+                ++lineLength;
+            }
+        }
+        scanned = end - start;
+        return false;
+    }
+
+    void reset() {
+        scanned = 0;
+        lineLength = 0;
+        requestLine = false;
+    }
+}
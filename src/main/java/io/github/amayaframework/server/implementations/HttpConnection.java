@@ -26,6 +26,8 @@
 package io.github.amayaframework.server.implementations;
 
 import io.github.amayaframework.server.interfaces.HttpContext;
+import io.github.amayaframework.server.streams.ReadStream;
+import io.github.amayaframework.server.streams.ReadinessWaiter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -33,14 +35,29 @@ import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
-public class HttpConnection {
+public class HttpConnection implements ReadinessWaiter {
     private final Logger logger = LoggerFactory.getLogger(HttpConnection.class);
     private final ServerImpl server;
+    private final ReentrantLock lock = new ReentrantLock();
+    private ServerImpl.Dispatcher dispatcher;
+    private TimerWheel.Timeout timeout;
+    /* finds complete request heads in the input buffered by the dispatcher, http only */
+    private final HeadScanner headScanner = new HeadScanner();
+    private ReadStream readStream;
+    private final ResponseSequencer sequencer = new ResponseSequencer();
+    /* the parse state of a completed request, reused by the next one */
+    private final AtomicReference<Request> spareRequest = new AtomicReference<>();
+    /* encodes the responses, created by the first one */
+    private volatile ResponseBuffer responseBuffer;
     private HttpContext context;
     private SSLEngine engine;
 
@@ -58,8 +75,18 @@ public class HttpConnection {
     private SelectionKey selectionKey;
     private String protocol;
     private int remaining;
-    private boolean closed = false;
+    private volatile boolean closed = false;
     private volatile State state;
+    /*
+     * The worker threads waiting for the channel to become readable and writable, if any.
+     * A pipelined exchange may read while an earlier one writes, so both can wait at once.
+     */
+    private volatile Thread readWaiter;
+    private volatile Thread writeWaiter;
+    private volatile boolean readReady;
+    private volatile boolean writeReady;
+    /* guards the waiters and the interest ops derived from them against the dispatcher */
+    private final ReentrantLock interestLock = new ReentrantLock();
 
     private volatile long creationTime; // time this connection was created
     private volatile long responseStartedTime;
@@ -73,6 +100,59 @@ public class HttpConnection {
         return server;
     }
 
+    ServerImpl.Dispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    void setDispatcher(ServerImpl.Dispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    TimerWheel.Timeout getTimeout() {
+        return timeout;
+    }
+
+    void setTimeout(TimerWheel.Timeout timeout) {
+        this.timeout = timeout;
+    }
+
+    ReadStream getReadStream() {
+        return readStream;
+    }
+
+    void setReadStream(ReadStream readStream) {
+        this.readStream = readStream;
+    }
+
+    HeadScanner getHeadScanner() {
+        return headScanner;
+    }
+
+    ResponseSequencer getSequencer() {
+        return sequencer;
+    }
+
+    /**
+     * @return the parse state of a completed request, or a new one if it is still in use
+     */
+    Request takeRequest() {
+        Request request = spareRequest.getAndSet(null);
+        return request == null ? new Request() : request;
+    }
+
+    void releaseRequest(Request request) {
+        spareRequest.set(request);
+    }
+
+    ResponseBuffer getResponseBuffer() {
+        ResponseBuffer buffer = responseBuffer;
+        if (buffer == null) {
+            buffer = new ResponseBuffer();
+            responseBuffer = buffer;
+        }
+        return buffer;
+    }
+
     public String toString() {
         String s = null;
         if (channel != null) {
@@ -117,43 +197,148 @@ public class HttpConnection {
         channel = c;
     }
 
-    public synchronized void close() {
-        if (closed) {
-            return;
-        }
-        closed = true;
-        if (channel != null) {
-            logger.info("Closing connection: " + channel);
-        }
-        if (!Objects.requireNonNull(channel).isOpen()) {
-            logger.info("Channel already closed");
-            return;
-        }
+    @Override
+    public void awaitReadable() throws IOException {
+        await(SelectionKey.OP_READ);
+    }
+
+    @Override
+    public void awaitWritable() throws IOException {
+        await(SelectionKey.OP_WRITE);
+    }
+
+    private void await(int op) throws IOException {
+        boolean read = op == SelectionKey.OP_READ;
+        Thread current = Thread.currentThread();
+        interestLock.lock();
         try {
-            /* need to ensure temporary selectors are closed */
-            if (rawInputStream != null) {
-                rawInputStream.close();
+            if (read) {
+                readReady = false;
+                readWaiter = current;
+            } else {
+                writeReady = false;
+                writeWaiter = current;
             }
-        } catch (IOException e) {
-            logger.error(e.getMessage());
-            e.printStackTrace();
+            dispatcher.setInterest(this, awaitedOps());
+        } finally {
+            interestLock.unlock();
         }
         try {
-            if (rawOutputStream != null) {
-                rawOutputStream.close();
+            while (!(read ? readReady : writeReady)) {
+                if (closed) {
+                    throw new IOException("connection closed");
+                }
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    throw new InterruptedIOException("interrupted while waiting for channel");
+                }
+            }
+        } finally {
+            interestLock.lock();
+            try {
+                if (read && readWaiter == current) {
+                    readWaiter = null;
+                } else if (!read && writeWaiter == current) {
+                    writeWaiter = null;
+                }
+            } finally {
+                interestLock.unlock();
             }
-        } catch (IOException e) {
-            logger.error(e.getMessage());
-            e.printStackTrace();
         }
-        if (sslStreams != null) {
-            sslStreams.close();
+    }
+
+    private int awaitedOps() {
+        return (readWaiter != null ? SelectionKey.OP_READ : 0) | (writeWaiter != null ? SelectionKey.OP_WRITE : 0);
+    }
+
+    /*
+     * Called by the dispatcher when the channel is ready. Wakes the workers waiting for
+     * the ready operations and keeps the interest in those still awaited.
+     * Returns false if no worker is waiting, the readiness then concerns the next request.
+     */
+    boolean signalReady(SelectionKey key) {
+        interestLock.lock();
+        try {
+            Thread reader = readWaiter;
+            Thread writer = writeWaiter;
+            if (reader == null && writer == null) {
+                return false;
+            }
+            int ops = key.readyOps();
+            if (reader != null && (ops & SelectionKey.OP_READ) != 0) {
+                readReady = true;
+                readWaiter = null;
+                LockSupport.unpark(reader);
+            }
+            if (writer != null && (ops & SelectionKey.OP_WRITE) != 0) {
+                writeReady = true;
+                writeWaiter = null;
+                LockSupport.unpark(writer);
+            }
+            key.interestOps(awaitedOps());
+            return true;
+        } finally {
+            interestLock.unlock();
         }
+    }
+
+    public void close() {
+        lock.lock();
         try {
-            channel.close();
-        } catch (IOException e) {
-            logger.error(e.getMessage());
-            e.printStackTrace();
+            if (closed) {
+                return;
+            }
+            closed = true;
+            Thread reader = readWaiter;
+            if (reader != null) {
+                LockSupport.unpark(reader);
+            }
+            Thread writer = writeWaiter;
+            if (writer != null) {
+                LockSupport.unpark(writer);
+            }
+            if (dispatcher != null) {
+                dispatcher.connectionClosed();
+            }
+            sequencer.close();
+            if (timeout != null) {
+                timeout.cancel();
+            }
+            if (channel != null) {
+                logger.info("Closing connection: " + channel);
+            }
+            if (!Objects.requireNonNull(channel).isOpen()) {
+                logger.info("Channel already closed");
+                return;
+            }
+            try {
+                /* need to ensure temporary selectors are closed */
+                if (rawInputStream != null) {
+                    rawInputStream.close();
+                }
+            } catch (IOException e) {
+                logger.error(e.getMessage());
+                e.printStackTrace();
+            }
+            try {
+                if (rawOutputStream != null) {
+                    rawOutputStream.close();
+                }
+            } catch (IOException e) {
+                logger.error(e.getMessage());
+                e.printStackTrace();
+            }
+            if (sslStreams != null) {
+                sslStreams.close();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.error(e.getMessage());
+                e.printStackTrace();
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -4,12 +4,15 @@ import io.github.amayaframework.http.HeaderMap;
 import io.github.amayaframework.http.HttpCode;
 import io.github.amayaframework.server.interfaces.HttpContext;
 import io.github.amayaframework.server.interfaces.HttpExchange;
+import io.github.amayaframework.server.utils.QueryParameters;
+import io.github.amayaframework.server.utils.RequestMethod;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.URI;
+import java.nio.ByteBuffer;
 
 public class HttpExchangeImpl implements HttpExchange {
     private final ExchangeImpl impl;
@@ -30,10 +33,26 @@ public class HttpExchangeImpl implements HttpExchange {
         return impl.getRequestURI();
     }
 
+    public String getRawPath() {
+        return impl.getRawPath();
+    }
+
+    public String getRawQuery() {
+        return impl.getRawQuery();
+    }
+
+    public QueryParameters getQueryParameters() {
+        return impl.getQueryParameters();
+    }
+
     public String getRequestMethod() {
         return impl.getRequestMethod();
     }
 
+    public RequestMethod getMethod() {
+        return impl.getMethod();
+    }
+
     public HttpContext getHttpContext() {
         return impl.getHttpContext();
     }
@@ -59,6 +78,14 @@ public class HttpExchangeImpl implements HttpExchange {
         impl.sendResponseHeaders(code, contentLen);
     }
 
+    public void sendResponse(HttpCode code, byte[] body) throws IOException {
+        impl.sendResponse(code, body);
+    }
+
+    public void sendResponse(HttpCode code, ByteBuffer body) throws IOException {
+        impl.sendResponse(code, body);
+    }
+
     public InetSocketAddress getRemoteAddress() {
         return impl.getRemoteAddress();
     }
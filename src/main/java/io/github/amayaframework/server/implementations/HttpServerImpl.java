@@ -6,6 +6,7 @@ import io.github.amayaframework.server.interfaces.HttpServer;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
 
 public class HttpServerImpl implements HttpServer {
@@ -43,6 +44,11 @@ public class HttpServerImpl implements HttpServer {
         server.stop(delay);
     }
 
+    @Override
+    public CompletableFuture<Void> stopAsync(int delay) {
+        return server.stopAsync(delay);
+    }
+
     @Override
     public HttpContext createContext(String path, HttpHandler handler) {
         return server.createContext(path, handler);
@@ -67,4 +73,24 @@ public class HttpServerImpl implements HttpServer {
     public InetSocketAddress getAddress() {
         return server.getAddress();
     }
+
+    @Override
+    public long getAcceptedConnections() {
+        return server.getAcceptedConnections();
+    }
+
+    @Override
+    public long getAcceptRate() {
+        return server.getAcceptRate();
+    }
+
+    @Override
+    public int getMaxAcceptBatch() {
+        return server.getMaxAcceptBatch();
+    }
+
+    @Override
+    public int getPendingConnections() {
+        return server.getPendingConnections();
+    }
 }
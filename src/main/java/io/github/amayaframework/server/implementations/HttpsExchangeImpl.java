@@ -4,6 +4,8 @@ import io.github.amayaframework.http.HeaderMap;
 import io.github.amayaframework.http.HttpCode;
 import io.github.amayaframework.server.interfaces.HttpContext;
 import io.github.amayaframework.server.interfaces.HttpsExchange;
+import io.github.amayaframework.server.utils.QueryParameters;
+import io.github.amayaframework.server.utils.RequestMethod;
 
 import javax.net.ssl.SSLSession;
 import java.io.IOException;
@@ -11,6 +13,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.URI;
+import java.nio.ByteBuffer;
 
 public class HttpsExchangeImpl implements HttpsExchange {
     private final ExchangeImpl impl;
@@ -31,10 +34,26 @@ public class HttpsExchangeImpl implements HttpsExchange {
         return impl.getRequestURI();
     }
 
+    public String getRawPath() {
+        return impl.getRawPath();
+    }
+
+    public String getRawQuery() {
+        return impl.getRawQuery();
+    }
+
+    public QueryParameters getQueryParameters() {
+        return impl.getQueryParameters();
+    }
+
     public String getRequestMethod() {
         return impl.getRequestMethod();
     }
 
+    public RequestMethod getMethod() {
+        return impl.getMethod();
+    }
+
     public HttpContext getHttpContext() {
         return impl.getHttpContext();
     }
@@ -59,6 +78,14 @@ public class HttpsExchangeImpl implements HttpsExchange {
         impl.sendResponseHeaders(code, contentLen);
     }
 
+    public void sendResponse(HttpCode code, byte[] body) throws IOException {
+        impl.sendResponse(code, body);
+    }
+
+    public void sendResponse(HttpCode code, ByteBuffer body) throws IOException {
+        impl.sendResponse(code, body);
+    }
+
     public InetSocketAddress getRemoteAddress() {
         return impl.getRemoteAddress();
     }
@@ -26,186 +26,452 @@
 package io.github.amayaframework.server.implementations;
 
 import io.github.amayaframework.http.HeaderMap;
-import io.github.amayaframework.http.HttpHeaderMap;
+import io.github.amayaframework.http.HttpCode;
+import io.github.amayaframework.server.streams.InputBuffer;
+import io.github.amayaframework.server.streams.InputBufferStream;
+import io.github.amayaframework.server.utils.Formats;
+import io.github.amayaframework.server.utils.RequestMethod;
 import io.github.amayaframework.server.utils.ServerConfig;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 public class Request {
-    private final static int BUF_LEN = 2048;
     private final static byte CR = 13;
     private final static byte LF = 10;
-    private final InputStream inputStream;
-    private final OutputStream outputStream;
-    private final char[] buf = new char[BUF_LEN];
-    int pos;
-    StringBuffer lineBuf;
-    HeaderMap headers = null;
-    private String startLine;
+    private final static byte SP = 32;
+    private final static byte HT = 9;
+    /* a scratch array grown for an unusually long line is dropped above this */
+    private final static int MAX_RETAINED_SCRATCH = 16 * 1024;
+    /* shared instances of the common versions, so that parsing them allocates nothing */
+    private final static String[] VERSIONS = {"HTTP/1.1", "HTTP/1.0"};
+    /* the characters java.net.URI accepts unescaped in the path and query of an origin-form target */
+    private final static boolean[] TARGET_CHARS = new boolean[128];
+
+    static {
+        String chars = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789-._~!$&'()*+,;=:@/?%#";
+        for (int i = 0; i < chars.length(); ++i) {
+            TARGET_CHARS[chars.charAt(i)] = true;
+        }
+    }
+
+    private InputStream inputStream;
+    private OutputStream outputStream;
+    private InputBuffer input;
+    /* kept between requests, so that its buffers are reused */
+    private RequestHeaders rawHeaders;
+    private boolean headersRead;
+    private boolean invalidHeader;
+    /* the parts of the request line, all null if it is malformed */
+    private RequestMethod method;
+    private String target;
+    private String version;
+    private String rawPath;
+    private String rawQuery;
+    private String path;
+    /* the line found last, see findLine */
+    private byte[] lineBytes;
+    private int lineStart;
+    private int lineFeed;
+    /* collects lines which do not fit the buffer of the connection */
+    private byte[] scratch;
+
+    Request() {
+    }
 
     public Request(InputStream inputStream, OutputStream outputStream) throws IOException {
+        read(inputStream, outputStream);
+    }
+
+    /**
+     * Drops the state of the previous request and reads the request line of the next one.
+     *
+     * @param inputStream  the stream to read the request from
+     * @param outputStream the stream to write the response to
+     * @return false if the connection was closed before a request line was received
+     * @throws IOException if the request line can not be read
+     */
+    boolean read(InputStream inputStream, OutputStream outputStream) throws IOException {
+        if (!(inputStream instanceof InputBuffer)) {
+            inputStream = new InputBufferStream(inputStream);
+        }
         this.inputStream = inputStream;
         this.outputStream = outputStream;
-        do {
-            startLine = readLine();
-            if (startLine == null) {
-                return;
+        this.input = (InputBuffer) inputStream;
+        headersRead = false;
+        invalidHeader = false;
+        method = null;
+        target = null;
+        version = null;
+        rawPath = null;
+        rawQuery = null;
+        path = null;
+        lineBytes = null;
+        if (scratch != null && scratch.length > MAX_RETAINED_SCRATCH) {
+            scratch = null;
+        }
+        return parseRequestLine();
+    }
+
+    /*
+     * Scans the buffered bytes for the end of a line, receiving more as needed, and consumes the line.
+     * A line which does not fit the buffer is collected in the scratch array while the rest is received.
+     * Sets lineBytes, lineStart and lineFeed to the line and its LF, or returns false if the stream ends first.
+     * Fails as soon as the line, including its LF, would be longer than the limit.
+     */
+    private boolean findLine(long limit, HttpCode status) throws IOException {
+        int scanned = 0;
+        int collected = 0;
+        while (true) {
+            ByteBuffer buffer = input.buffer();
+            byte[] bytes = buffer.array();
+            int offset = buffer.arrayOffset();
+            int start = offset + buffer.position();
+            int end = start + (int) Math.min(buffer.remaining(), limit - collected);
+            for (int i = start + scanned; i < end; ++i) {
+                if (bytes[i] == LF) {
+                    buffer.position(i + 1 - offset);
+                    if (collected == 0) {
+                        lineBytes = bytes;
+                        lineStart = start;
+                        lineFeed = i;
+                    } else {
+                        collect(bytes, start, i + 1 - start, collected);
+                        lineBytes = scratch;
+                        lineStart = 0;
+                        lineFeed = collected + i - start;
+                    }
+                    return true;
+                }
+            }
+            scanned = end - start;
+            if (collected + scanned == limit) {
+                throw new RequestTooLargeException(
+                        status,
+                        status == HttpCode.REQUEST_URI_TOO_LONG ? "Request line too long" : "Request headers too large"
+                );
+            }
+            if (buffer.remaining() == buffer.capacity()) {
+                /* the buffer is full, so the line goes on in the scratch array */
+                collect(bytes, start, scanned, collected);
+                collected += scanned;
+                scanned = 0;
+                buffer.position(buffer.limit());
+            }
+            if (input.fill() == -1) {
+                return false;
+            }
+        }
+    }
+
+    private void collect(byte[] bytes, int start, int length, int collected) {
+        int required = collected + length;
+        if (scratch == null || scratch.length < required) {
+            int capacity = scratch == null ? required : Math.max(required, scratch.length * 2);
+            byte[] grown = new byte[capacity];
+            if (collected > 0) {
+                System.arraycopy(scratch, 0, grown, 0, collected);
+            }
+            scratch = grown;
+        }
+        System.arraycopy(bytes, start, scratch, collected, length);
+    }
+
+    /*
+     * Parses the request line and splits it by offsets. Returns false if the stream ends first.
+     */
+    private boolean parseRequestLine() throws IOException {
+        /* room for the CRLF */
+        long limit = ServerConfig.getMaxRequestLineLength() + 2L;
+        while (true) {
+            if (!findLine(limit, HttpCode.REQUEST_URI_TOO_LONG)) {
+                return false;
             }
+            byte[] bytes = lineBytes;
+            int start = lineStart;
+            int lf = lineFeed;
+            int lineEnd = lf > start && bytes[lf - 1] == CR ? lf - 1 : lf;
             /* skip blank lines */
-        } while (startLine.equals(""));
+            if (lineEnd > start) {
+                split(bytes, start, lineEnd);
+                return true;
+            }
+        }
     }
 
-    public InputStream inputStream() {
-        return inputStream;
+    /*
+     * Parses the header lines up to and including the empty line ending them.
+     * Stops at the first name which is not a token, leaving the rest of the head unread.
+     */
+    private void parseHeaders() throws IOException {
+        if (rawHeaders == null) {
+            rawHeaders = new RequestHeaders();
+        } else {
+            rawHeaders.clear();
+        }
+        headersRead = true;
+        int max = ServerConfig.getMaxReqHeaders();
+        /* the final empty line is not counted */
+        long remaining = ServerConfig.getMaxHeaderBytes() + 2L;
+        while (true) {
+            if (!findLine(remaining, HttpCode.REQUEST_HEADER_FIELDS_TOO_LARGE)) {
+                return;
+            }
+            byte[] bytes = lineBytes;
+            int start = lineStart;
+            int lf = lineFeed;
+            remaining -= lf + 1 - start;
+            int end = lf > start && bytes[lf - 1] == CR ? lf - 1 : lf;
+            if (end == start) {
+                return;
+            }
+            if ((bytes[start] == SP || bytes[start] == HT) && rawHeaders.size() > 0) {
+                /* continuation of the previous value */
+                rawHeaders.append(bytes, skipSpaces(bytes, start, end), trimSpaces(bytes, start, end));
+                continue;
+            }
+            if (rawHeaders.size() >= max) {
+                throw new RequestTooLargeException(
+                        HttpCode.REQUEST_HEADER_FIELDS_TOO_LARGE,
+                        "Maximum number of request headers exceeded, " + max + "."
+                );
+            }
+            int colon = start;
+            while (colon < end && bytes[colon] != ':' && Formats.isTokenChar(bytes[colon] & 0xFF)) {
+                ++colon;
+            }
+            if (colon == start || colon == end || bytes[colon] != ':') {
+                invalidHeader = true;
+                return;
+            }
+            int valueStart = skipSpaces(bytes, colon + 1, end);
+            rawHeaders.add(bytes, start, colon, valueStart, Math.max(valueStart, trimSpaces(bytes, valueStart, end)));
+        }
     }
 
-    public OutputStream outputStream() {
-        return outputStream;
+    private void split(byte[] bytes, int start, int end) {
+        int first = indexOf(bytes, SP, start, end);
+        if (first == -1) {
+            return;
+        }
+        int second = indexOf(bytes, SP, first + 1, end);
+        if (second == -1) {
+            return;
+        }
+        method = RequestMethod.of(bytes, start, first);
+        if (method == null) {
+            return;
+        }
+        target = new String(bytes, first + 1, second - first - 1, StandardCharsets.ISO_8859_1);
+        version = constant(VERSIONS, bytes, second + 1, end);
     }
 
     /**
-     * read a line from the stream returning as a String.
-     * Not used for reading headers.
+     * Splits the request target into its raw path and query. Origin-form targets are only checked
+     * for characters and escapes {@link URI} would reject, the {@link URI} itself is built on demand.
      *
-     * @return readied line
-     * @throws IOException if read() throws it
+     * @return false if the target contains illegal characters or malformed escapes
+     * @throws URISyntaxException if the target is not in origin-form and can not be parsed
      */
-    public String readLine() throws IOException {
-        boolean gotCR = false, gotLF = false;
-        pos = 0;
-        lineBuf = new StringBuffer();
-        while (!gotLF) {
-            int c = inputStream.read();
-            if (c == -1) {
-                return null;
-            }
-            if (gotCR) {
-                if (c == LF) {
-                    gotLF = true;
-                } else {
-                    gotCR = false;
-                    consume(CR);
-                    consume(c);
+    boolean parseTarget() throws URISyntaxException {
+        if (!target.startsWith("/")) {
+            URI uri = new URI(target);
+            rawPath = uri.getRawPath() == null ? "" : uri.getRawPath();
+            rawQuery = uri.getRawQuery();
+            path = uri.getPath() == null ? "" : uri.getPath();
+            return true;
+        }
+        int length = target.length();
+        int query = -1;
+        int fragment = length;
+        for (int i = 0; i < length; ++i) {
+            char c = target.charAt(i);
+            if (c >= TARGET_CHARS.length || !TARGET_CHARS[c]) {
+                return false;
+            }
+            if (c == '%') {
+                if (i + 2 >= length || !isHex(target.charAt(i + 1)) || !isHex(target.charAt(i + 2))) {
+                    return false;
                 }
-            } else {
-                if (c == CR) {
-                    gotCR = true;
-                } else {
-                    consume(c);
+            } else if (c == '?' && query == -1 && fragment == length) {
+                query = i;
+            } else if (c == '#') {
+                if (fragment != length) {
+                    return false;
                 }
+                fragment = i;
+            }
+        }
+        int pathEnd = query == -1 ? fragment : query;
+        rawPath = pathEnd == length ? target : target.substring(0, pathEnd);
+        rawQuery = query == -1 ? null : target.substring(query + 1, fragment);
+        return true;
+    }
+
+    private static boolean isHex(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+
+    private static int indexOf(byte[] bytes, byte b, int start, int end) {
+        for (int i = start; i < end; ++i) {
+            if (bytes[i] == b) {
+                return i;
             }
         }
-        lineBuf.append(buf, 0, pos);
-        return new String(lineBuf);
+        return -1;
     }
 
-    private void consume(int c) {
-        if (pos == BUF_LEN) {
-            lineBuf.append(buf);
-            pos = 0;
+    private static int skipSpaces(byte[] bytes, int start, int end) {
+        while (start < end && (bytes[start] & 0xFF) <= SP) {
+            ++start;
         }
-        buf[pos++] = (char) c;
+        return start;
+    }
+
+    private static int trimSpaces(byte[] bytes, int start, int end) {
+        while (end > start && (bytes[end - 1] & 0xFF) <= SP) {
+            --end;
+        }
+        return end;
+    }
+
+    /* returns the shared constant equal to the given bytes, or a new string */
+    private static String constant(String[] constants, byte[] bytes, int start, int end) {
+        int length = end - start;
+        outer:
+        for (String constant : constants) {
+            if (constant.length() != length) {
+                continue;
+            }
+            for (int i = 0; i < length; ++i) {
+                if (constant.charAt(i) != bytes[start + i]) {
+                    continue outer;
+                }
+            }
+            return constant;
+        }
+        return new String(bytes, start, length, StandardCharsets.ISO_8859_1);
+    }
+
+    public InputStream inputStream() {
+        return inputStream;
+    }
+
+    public OutputStream outputStream() {
+        return outputStream;
     }
 
     /**
-     * @return the request line (first line of a request)
+     * @return the method of the request, or null if the request line is malformed
      */
-    public String requestLine() {
-        return startLine;
+    public RequestMethod method() {
+        return method;
     }
 
-    @SuppressWarnings("fallthrough")
-    public HeaderMap headers() throws IOException {
-        if (headers != null) {
-            return headers;
-        }
-        headers = new HttpHeaderMap();
-        char[] s = new char[10];
-        int len = 0;
-        int firstChar = inputStream.read();
-        // check for empty headers
-        if (firstChar == CR || firstChar == LF) {
-            int c = inputStream.read();
-            if (c == CR || c == LF) {
-                return headers;
-            }
-            s[0] = (char) firstChar;
-            len = 1;
-            firstChar = c;
-        }
-        while (firstChar != LF && firstChar != CR && firstChar >= 0) {
-            int keyEnd = -1;
-            int c;
-            boolean inKey = firstChar > ' ';
-            s[len++] = (char) firstChar;
-            parseLoop:
-            {
-                while ((c = inputStream.read()) >= 0) {
-                    switch (c) {
-                        /*fallthrough*/
-                        case ':':
-                            if (inKey && len > 0)
-                                keyEnd = len;
-                            inKey = false;
-                            break;
-                        case '\t':
-                            c = ' ';
-                        case ' ':
-                            inKey = false;
-                            break;
-                        case CR:
-                        case LF:
-                            firstChar = inputStream.read();
-                            if (c == CR && firstChar == LF) {
-                                firstChar = inputStream.read();
-                                if (firstChar == CR)
-                                    firstChar = inputStream.read();
-                            }
-                            if (firstChar == LF || firstChar == CR || firstChar > ' ')
-                                break parseLoop;
-                            /* continuation */
-                            c = ' ';
-                            break;
-                    }
-                    if (len >= s.length) {
-                        char[] ns = new char[s.length * 2];
-                        System.arraycopy(s, 0, ns, 0, len);
-                        s = ns;
-                    }
-                    s[len++] = (char) c;
-                }
-                firstChar = -1;
-            }
-            while (len > 0 && s[len - 1] <= ' ')
-                len--;
-            String k;
-            if (keyEnd <= 0) {
-                k = null;
-                keyEnd = 0;
+    /**
+     * @return the request target as sent, or null if the request line is malformed
+     */
+    public String target() {
+        return target;
+    }
+
+    /**
+     * @return the protocol version of the request, or null if the request line is malformed
+     */
+    public String version() {
+        return version;
+    }
+
+    /**
+     * @return the path of the request target as sent, set by {@link #parseTarget()}
+     */
+    String rawPath() {
+        return rawPath;
+    }
+
+    /**
+     * @return the path of the request target with its escapes decoded,
+     * the same as the path of {@link #uri(String)}, set by {@link #parseTarget()}
+     */
+    String path() {
+        if (path == null) {
+            path = rawPath.indexOf('%') == -1 ? rawPath : decode(rawPath);
+        }
+        return path;
+    }
+
+    /* decodes the %XX escapes of UTF-8 bytes in an origin-form path, which parseTarget checked to be ASCII */
+    private static String decode(String s) {
+        int length = s.length();
+        byte[] bytes = new byte[length];
+        int count = 0;
+        for (int i = 0; i < length; ++i) {
+            char c = s.charAt(i);
+            if (c == '%') {
+                int high = Character.digit(s.charAt(i + 1), 16);
+                int low = Character.digit(s.charAt(i + 2), 16);
+                bytes[count++] = (byte) (high << 4 | low);
+                i += 2;
             } else {
-                k = String.copyValueOf(s, 0, keyEnd);
-                if (keyEnd < len && s[keyEnd] == ':')
-                    keyEnd++;
-                while (keyEnd < len && s[keyEnd] <= ' ')
-                    keyEnd++;
-            }
-            String v;
-            if (keyEnd >= len)
-                v = "";
-            else
-                v = String.copyValueOf(s, keyEnd, len - keyEnd);
-
-            if (headers.size() >= ServerConfig.getMaxReqHeaders()) {
-                throw new IOException(
-                        "Maximum number of request headers exceeded, " + ServerConfig.getMaxReqHeaders() + "."
-                );
+                bytes[count++] = (byte) c;
             }
+        }
+        return new String(bytes, 0, count, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the query of the request target as sent, or null if there is none
+     */
+    String rawQuery() {
+        return rawQuery;
+    }
 
-            headers.add(k, v);
-            len = 0;
+    /**
+     * @param target a request target accepted by {@link #parseTarget()}
+     * @return the target as an {@link URI}
+     */
+    static URI uri(String target) {
+        try {
+            /* the empty authority keeps a path starting with "//" from being parsed as one */
+            return new URI(target.startsWith("//") ? "//" + target : target);
+        } catch (URISyntaxException e) {
+            /* parseTarget lets only targets through which parse */
+            throw new IllegalStateException(e);
         }
-        return headers;
+    }
+
+    /**
+     * Reads the request headers on the first call.
+     *
+     * @return the request headers, with values decoded on access
+     * @throws IOException if the headers can not be read
+     */
+    RequestHeaders rawHeaders() throws IOException {
+        if (!headersRead) {
+            parseHeaders();
+        }
+        return rawHeaders;
+    }
+
+    /**
+     * @return false if a header name contains characters not allowed in a token
+     * @throws IOException if the headers can not be read
+     */
+    boolean hasValidHeaders() throws IOException {
+        rawHeaders();
+        return !invalidHeader;
+    }
+
+    /**
+     * @return a read-only view of the request headers, which fails once they are reused by the next request
+     * @throws IOException if the headers can not be read
+     */
+    public HeaderMap headers() throws IOException {
+        return rawHeaders().asMap();
     }
 }
@@ -0,0 +1,105 @@
+package io.github.amayaframework.server.implementations;
+
+import io.github.amayaframework.http.HeaderMap;
+
+import java.util.*;
+
+/**
+ * A read-only {@link HeaderMap} view of {@link RequestHeaders}, which looks names up
+ * case-insensitively in the header arrays instead of copying them into a map.
+ * The entries are only collected when the map is iterated or compared.
+ * Once the headers are cleared for the next request of the connection, every access
+ * throws {@link IllegalStateException} instead of returning the headers of that request.
+ */
+class RequestHeaderMap extends AbstractMap<String, List<String>> implements HeaderMap {
+    private final RequestHeaders headers;
+    private final int generation;
+    private Set<Entry<String, List<String>>> entries;
+
+    RequestHeaderMap(RequestHeaders headers, int generation) {
+        this.headers = headers;
+        this.generation = generation;
+    }
+
+    private RequestHeaders headers() {
+        if (headers.generation() != generation) {
+            throw new IllegalStateException("request headers have been reused by the next request");
+        }
+        return headers;
+    }
+
+    @Override
+    public String getFirst(String key) {
+        return key == null ? null : headers().getFirst(key);
+    }
+
+    @Override
+    public List<String> get(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        RequestHeaders headers = headers();
+        String name = (String) key;
+        String first = headers.getFirst(name);
+        if (first == null) {
+            return null;
+        }
+        int count = headers.count(name);
+        if (count == 1) {
+            return Collections.singletonList(first);
+        }
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < headers.size(); ++i) {
+            if (headers.name(i).equalsIgnoreCase(name)) {
+                values.add(headers.value(i));
+            }
+        }
+        return Collections.unmodifiableList(values);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String && headers().contains((String) key);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return headers().size() == 0;
+    }
+
+    @Override
+    public Set<Entry<String, List<String>>> entrySet() {
+        RequestHeaders headers = headers();
+        if (entries == null) {
+            Map<String, List<String>> map = new LinkedHashMap<>();
+            for (int i = 0; i < headers.size(); ++i) {
+                String name = normalize(headers.name(i));
+                if (!map.containsKey(name)) {
+                    map.put(name, get(name));
+                }
+            }
+            entries = Collections.unmodifiableMap(map).entrySet();
+        }
+        return entries;
+    }
+
+    @Override
+    public void add(String key, String value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void set(String key, String value) {
+        throw new UnsupportedOperationException();
+    }
+
+    /* the form the header map of the response uses, first letter upper case and the rest lower case */
+    private static String normalize(String name) {
+        char first = Character.toUpperCase(name.charAt(0));
+        String rest = name.substring(1).toLowerCase(Locale.ROOT);
+        if (first == name.charAt(0) && name.regionMatches(1, rest, 0, rest.length())) {
+            return name;
+        }
+        return first + rest;
+    }
+}
@@ -0,0 +1,240 @@
+package io.github.amayaframework.server.implementations;
+
+import io.github.amayaframework.http.HeaderMap;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The headers of a request as parsed from the connection buffer. Well-known names are mapped to
+ * shared constants, and values are kept as ranges of the copied header bytes,
+ * which are only decoded to strings when they are read.
+ */
+class RequestHeaders {
+    static final String HOST = "Host";
+    static final String CONTENT_LENGTH = "Content-length";
+    static final String TRANSFER_ENCODING = "Transfer-encoding";
+    static final String CONNECTION = "Connection";
+    static final String EXPECT = "Expect";
+    /* in the form the header map normalizes names to */
+    private static final String[] KNOWN_NAMES = {
+            HOST, CONTENT_LENGTH, TRANSFER_ENCODING, CONNECTION, EXPECT,
+            "Accept", "Accept-encoding", "Accept-language", "User-agent", "Cookie",
+            "Content-type", "Authorization", "Cache-control", "Origin", "Referer",
+            "If-none-match", "If-modified-since", "Upgrade", "Keep-alive", "Pragma"
+    };
+    private static final int INITIAL_DATA = 256;
+    /* above this the value bytes are not kept for the next request */
+    private static final int MAX_RETAINED_DATA = 8192;
+    private byte[] data = new byte[INITIAL_DATA];
+    private int length;
+    private String[] names = new String[16];
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    /* decoded values, filled on first access */
+    private String[] values = new String[16];
+    private int size;
+    /* counts the requests these headers were cleared for, the views of earlier ones are stale */
+    private volatile int generation;
+
+    int size() {
+        return size;
+    }
+
+    String name(int index) {
+        return names[index];
+    }
+
+    String value(int index) {
+        String value = values[index];
+        if (value == null) {
+            value = decode(data, starts[index], ends[index]);
+            values[index] = value;
+        }
+        return value;
+    }
+
+    /**
+     * @param name the header name, case-insensitive
+     * @return the first value of the header, or null if absent
+     */
+    String getFirst(String name) {
+        int index = indexOf(name);
+        return index == -1 ? null : value(index);
+    }
+
+    /**
+     * @param name the header name, case-insensitive
+     * @return the index of the first header with the name, or -1 if absent
+     */
+    int indexOf(String name) {
+        for (int i = 0; i < size; ++i) {
+            if (matches(names[i], name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Compares a value with the given one ignoring case, without decoding it.
+     *
+     * @param index the index of the header
+     * @param value the value to compare with, in ASCII
+     * @return true if the value is equal
+     */
+    boolean valueEqualsIgnoreCase(int index, String value) {
+        int start = starts[index];
+        if (start == -1) {
+            return values[index].equalsIgnoreCase(value);
+        }
+        int length = ends[index] - start;
+        if (length != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; ++i) {
+            if (toLower(data[start + i]) != toLower(value.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses the first value of a header as a decimal number, without decoding it.
+     *
+     * @param name the header name, case-insensitive
+     * @return the number, or -1 if the header is absent
+     * @throws NumberFormatException if the value is not a non-negative decimal number or does not fit a long
+     */
+    long getLong(String name) {
+        int index = indexOf(name);
+        if (index == -1) {
+            return -1;
+        }
+        int start = starts[index];
+        int end = ends[index];
+        if (start == -1 || start == end) {
+            throw new NumberFormatException("Invalid number in " + name);
+        }
+        long ret = 0;
+        for (int i = start; i < end; ++i) {
+            int digit = data[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Invalid number in " + name);
+            }
+            if (ret > (Long.MAX_VALUE - digit) / 10) {
+                throw new NumberFormatException("Number too large in " + name);
+            }
+            ret = ret * 10 + digit;
+        }
+        return ret;
+    }
+
+    boolean contains(String name) {
+        return count(name) > 0;
+    }
+
+    int count(String name) {
+        int count = 0;
+        for (int i = 0; i < size; ++i) {
+            if (matches(names[i], name)) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Adds a header line, copying its value bytes.
+     *
+     * @param bytes      the buffer holding the line
+     * @param nameStart  the start of the name
+     * @param nameEnd    the end of the name
+     * @param valueStart the start of the value
+     * @param valueEnd   the end of the value
+     */
+    void add(byte[] bytes, int nameStart, int nameEnd, int valueStart, int valueEnd) {
+        if (size == names.length) {
+            int capacity = size * 2;
+            names = Arrays.copyOf(names, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        int valueLength = valueEnd - valueStart;
+        if (length + valueLength > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, length + valueLength));
+        }
+        System.arraycopy(bytes, valueStart, data, length, valueLength);
+        names[size] = name(bytes, nameStart, nameEnd);
+        starts[size] = length;
+        ends[size] = length + valueLength;
+        values[size] = null;
+        length += valueLength;
+        ++size;
+    }
+
+    /* appends a continuation line to the value of the last header, which is then only kept decoded */
+    void append(byte[] bytes, int start, int end) {
+        int last = size - 1;
+        values[last] = value(last) + ' ' + decode(bytes, start, end);
+        starts[last] = -1;
+        ends[last] = -1;
+    }
+
+    /**
+     * Removes all headers, keeping the storage for the next request.
+     */
+    void clear() {
+        Arrays.fill(names, 0, size, null);
+        Arrays.fill(values, 0, size, null);
+        if (data.length > MAX_RETAINED_DATA) {
+            data = new byte[INITIAL_DATA];
+        }
+        length = 0;
+        size = 0;
+        ++generation;
+    }
+
+    int generation() {
+        return generation;
+    }
+
+    /**
+     * @return a read-only view of the current headers, which fails once they are cleared
+     */
+    HeaderMap asMap() {
+        return new RequestHeaderMap(this, generation);
+    }
+
+    private static boolean matches(String name, String other) {
+        return name == other || name.equalsIgnoreCase(other);
+    }
+
+    private static String decode(byte[] bytes, int start, int end) {
+        return new String(bytes, start, end - start, StandardCharsets.ISO_8859_1).replace('\t', ' ');
+    }
+
+    /* returns the shared constant for a well-known name, or decodes it */
+    private static String name(byte[] bytes, int start, int end) {
+        int length = end - start;
+        outer:
+        for (String known : KNOWN_NAMES) {
+            if (known.length() != length) {
+                continue;
+            }
+            for (int i = 0; i < length; ++i) {
+                if (toLower(known.charAt(i)) != toLower(bytes[start + i])) {
+                    continue outer;
+                }
+            }
+            return known;
+        }
+        return new String(bytes, start, length, StandardCharsets.ISO_8859_1);
+    }
+
+    private static int toLower(int c) {
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c & 0xFF;
+    }
+}
@@ -0,0 +1,24 @@
+package io.github.amayaframework.server.implementations;
+
+import io.github.amayaframework.http.HttpCode;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a request exceeds one of the size limits, so that it can be rejected with the given status.
+ */
+class RequestTooLargeException extends IOException {
+    private final HttpCode code;
+
+    RequestTooLargeException(HttpCode code, String message) {
+        super(message);
+        this.code = code;
+    }
+
+    /**
+     * @return the status to reject the request with
+     */
+    HttpCode getCode() {
+        return code;
+    }
+}
@@ -0,0 +1,115 @@
+package io.github.amayaframework.server.implementations;
+
+import io.github.amayaframework.http.HeaderMap;
+import io.github.amayaframework.server.streams.ByteBufferWriter;
+import io.github.amayaframework.server.utils.ServerConfig;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the head of a response and the small writes of its body in a direct buffer owned
+ * by the connection, and writes them to the connection when the buffer is full, on flush
+ * and when the body is closed. Writes which do not fit the buffer go to the connection as they are.
+ * Header names and values are encoded into the buffer char by char, without intermediate arrays.
+ * Responses of a connection are written in request order, so one buffer serves all of them.
+ */
+class ResponseBuffer extends OutputStream {
+    /* a buffer grown for an unusually large head is dropped above this */
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(ServerConfig.getResponseBufferSize());
+    private OutputStream out;
+
+    /* starts a new response, which is written to the given stream */
+    ResponseBuffer start(OutputStream out) {
+        this.out = out;
+        int size = ServerConfig.getResponseBufferSize();
+        if (buffer.capacity() < size || buffer.capacity() > Math.max(size, MAX_RETAINED_CAPACITY)) {
+            buffer = ByteBuffer.allocateDirect(size);
+        } else {
+            buffer.clear();
+        }
+        return this;
+    }
+
+    /* writes each value as "name: value" followed by CRLF, and the empty line that ends the head */
+    void writeHeaders(HeaderMap headers) {
+        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            String key = entry.getKey();
+            for (String value : entry.getValue()) {
+                ensure(key.length() + value.length() + 4);
+                putAscii(key);
+                buffer.put((byte) ':').put((byte) ' ');
+                putAscii(value);
+                buffer.put((byte) '\r').put((byte) '\n');
+            }
+        }
+        ensure(2);
+        buffer.put((byte) '\r').put((byte) '\n');
+    }
+
+    private void putAscii(String s) {
+        int length = s.length();
+        for (int i = 0; i < length; ++i) {
+            buffer.put((byte) s.charAt(i));
+        }
+    }
+
+    /* grows the buffer, keeping its contents, so the given number of bytes fit */
+    private void ensure(int length) {
+        if (buffer.remaining() >= length) {
+            return;
+        }
+        int capacity = Math.max(buffer.capacity() * 2, buffer.position() + length);
+        ByteBuffer grown = ByteBuffer.allocateDirect(capacity);
+        buffer.flip();
+        grown.put(buffer);
+        buffer = grown;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (!buffer.hasRemaining()) {
+            writeBuffered();
+        }
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len <= buffer.remaining()) {
+            buffer.put(b, off, len);
+            return;
+        }
+        writeBuffered();
+        if (len < buffer.capacity()) {
+            buffer.put(b, off, len);
+        } else {
+            out.write(b, off, len);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writeBuffered();
+        out.flush();
+    }
+
+    private void writeBuffered() throws IOException {
+        if (buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        if (out instanceof ByteBufferWriter) {
+            ((ByteBufferWriter) out).write(buffer);
+        } else {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            out.write(bytes);
+        }
+        buffer.clear();
+    }
+}
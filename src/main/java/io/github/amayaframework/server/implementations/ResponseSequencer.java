@@ -0,0 +1,85 @@
+package io.github.amayaframework.server.implementations;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps the responses of pipelined requests in the order of their requests.
+ * Every request read from a connection takes the next ticket, and its response
+ * may only be written once the responses of all earlier tickets are complete.
+ */
+class ResponseSequencer {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition turn = lock.newCondition();
+    private long issued;
+    private long current;
+    private boolean closed;
+
+    long next() {
+        lock.lock();
+        try {
+            return issued++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of requests whose responses are not complete yet
+     */
+    int pending() {
+        lock.lock();
+        try {
+            return (int) (issued - current);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until the responses of all requests before the given one are complete.
+     *
+     * @param ticket the ticket of the request
+     * @throws IOException if the connection is closed meanwhile
+     */
+    void await(long ticket) throws IOException {
+        lock.lock();
+        try {
+            while (current < ticket) {
+                if (closed) {
+                    throw new IOException("connection closed");
+                }
+                turn.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for previous responses");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void complete(long ticket) {
+        lock.lock();
+        try {
+            if (ticket >= current) {
+                current = ticket + 1;
+                turn.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            turn.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
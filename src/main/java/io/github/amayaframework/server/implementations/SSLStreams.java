@@ -26,6 +26,8 @@
 package io.github.amayaframework.server.implementations;
 
 import io.github.amayaframework.server.interfaces.HttpsParameters;
+import io.github.amayaframework.server.streams.ByteBufferWriter;
+import io.github.amayaframework.server.streams.ReadinessWaiter;
 import io.github.amayaframework.server.utils.HttpsConfigurator;
 
 import javax.net.ssl.*;
@@ -47,11 +49,22 @@ public class SSLStreams {
     private int packetBufSize;
 
     public SSLStreams(HttpsConfigurator configurator, SSLContext sslContext, SocketChannel chan) {
+        this(configurator, sslContext, chan, null);
+    }
+
+    /**
+     * @param configurator the https configurator, may be <code>null</code>
+     * @param sslContext   the SSL context creating the engine
+     * @param chan         the channel to wrap
+     * @param waiter       used to wait for readiness if the channel is non-blocking, or <code>null</code>
+     */
+    public SSLStreams(HttpsConfigurator configurator, SSLContext sslContext, SocketChannel chan,
+                      ReadinessWaiter waiter) {
         InetSocketAddress address = (InetSocketAddress) chan.socket().getRemoteSocketAddress();
         engine = sslContext.createSSLEngine(address.getHostName(), address.getPort());
         engine.setUseClientMode(false);
         configureEngine(configurator, address);
-        wrapper = new EngineWrapper(chan, engine);
+        wrapper = new EngineWrapper(chan, engine, waiter);
     }
 
     private void configureEngine(HttpsConfigurator configurator, InetSocketAddress address) {
@@ -349,20 +362,22 @@ public class SSLStreams {
      */
     class EngineWrapper {
 
-        private final Object wrapLock;
-        private final Object unwrapLock;
+        private final Lock wrapLock;
+        private final Lock unwrapLock;
         private final SocketChannel chan;
         private final SSLEngine engine;
+        private final ReadinessWaiter waiter;
         boolean closed = false;
         int uRemaining; // the number of bytes left in unwrap_src after an unwrap()
         private ByteBuffer unwrapSrc;
         private ByteBuffer wrapDst;
 
-        EngineWrapper(SocketChannel chan, SSLEngine engine) {
+        EngineWrapper(SocketChannel chan, SSLEngine engine, ReadinessWaiter waiter) {
             this.chan = chan;
             this.engine = engine;
-            wrapLock = new Object();
-            unwrapLock = new Object();
+            this.waiter = waiter;
+            wrapLock = new ReentrantLock();
+            unwrapLock = new ReentrantLock();
             unwrapSrc = allocate(BufType.PACKET);
             wrapDst = allocate(BufType.PACKET);
         }
@@ -385,7 +400,8 @@ public class SSLStreams {
             }
             SSLEngineResult.Status status;
             WrapperResult r = new WrapperResult();
-            synchronized (wrapLock) {
+            wrapLock.lock();
+            try {
                 wrapDst.clear();
                 do {
                     r.result = engine.wrap(src, wrapDst);
@@ -400,11 +416,14 @@ public class SSLStreams {
                 }
                 if (r.result.bytesProduced() > 0) {
                     wrapDst.flip();
-                    int l = wrapDst.remaining();
-                    while (l > 0) {
-                        l -= chan.write(wrapDst);
+                    while (wrapDst.hasRemaining()) {
+                        if (chan.write(wrapDst) == 0 && waiter != null) {
+                            waiter.awaitWritable();
+                        }
                     }
                 }
+            } finally {
+                wrapLock.unlock();
             }
             return r;
         }
@@ -430,13 +449,16 @@ public class SSLStreams {
                 unwrapSrc.clear();
                 needData = true;
             }
-            synchronized (unwrapLock) {
+            unwrapLock.lock();
+            try {
                 int x;
                 do {
                     if (needData) {
-                        do {
-                            x = chan.read(unwrapSrc);
-                        } while (x == 0);
+                        while ((x = chan.read(unwrapSrc)) == 0) {
+                            if (waiter != null) {
+                                waiter.awaitReadable();
+                            }
+                        }
                         if (x == -1) {
                             throw new IOException("connection closed for reading");
                         }
@@ -468,6 +490,8 @@ public class SSLStreams {
                         return r;
                     }
                 } while (status != SSLEngineResult.Status.OK);
+            } finally {
+                unwrapLock.unlock();
             }
             uRemaining = unwrapSrc.remaining();
             return r;
@@ -592,7 +616,7 @@ public class SSLStreams {
      * is encrypted by the stream. Multiple HTTPS responses can be sent on
      * one stream. closing this stream initiates an SSL closure
      */
-    class OutputStream extends java.io.OutputStream {
+    class OutputStream extends java.io.OutputStream implements ByteBufferWriter {
         ByteBuffer buf;
         boolean closed = false;
         byte[] single = new byte[1];
@@ -631,6 +655,20 @@ public class SSLStreams {
             }
         }
 
+        @Override
+        public void write(ByteBuffer src) throws IOException {
+            if (closed) {
+                throw new IOException("output stream is closed");
+            }
+            WrapperResult r = sendData(src);
+            if (r != null && r.result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                closed = true;
+                if (src.hasRemaining()) {
+                    throw new IOException("output stream is closed");
+                }
+            }
+        }
+
         public void flush() {
             /* no-op */
         }
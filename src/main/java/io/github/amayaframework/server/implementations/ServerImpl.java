@@ -33,97 +33,130 @@ import io.github.amayaframework.server.interfaces.Filter;
 import io.github.amayaframework.server.interfaces.HttpContext;
 import io.github.amayaframework.server.interfaces.HttpExchange;
 import io.github.amayaframework.server.interfaces.HttpHandler;
+import io.github.amayaframework.server.streams.InputBufferStream;
 import io.github.amayaframework.server.streams.LeftOverInputStream;
 import io.github.amayaframework.server.streams.ReadStream;
+import io.github.amayaframework.server.streams.ReadinessWaiter;
 import io.github.amayaframework.server.streams.WriteStream;
 import io.github.amayaframework.server.utils.ContextList;
 import io.github.amayaframework.server.utils.Formats;
 import io.github.amayaframework.server.utils.HttpsConfigurator;
+import io.github.amayaframework.server.utils.RequestMethod;
 import io.github.amayaframework.server.utils.ServerConfig;
+import io.github.amayaframework.server.utils.VirtualThreads;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
-import java.io.BufferedInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.*;
+import java.nio.ByteBuffer;
 import java.nio.channels.*;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ServerImpl {
-    private final static int CLOCK_TICK = ServerConfig.getClockTick();
-    private final static long IDLE_INTERVAL = ServerConfig.getIdleInterval();
+    private final static long IDLE_INTERVAL = Formats.getTimeMillis(ServerConfig.getIdleInterval());
     private final static int MAX_IDLE_CONNECTIONS = ServerConfig.getMaxIdleConnections();
-    private final static long TIMER_MILLIS = ServerConfig.getTimerMillis();
     private final static long MAX_REQ_TIME = Formats.getTimeMillis(ServerConfig.getMaxReqTime());
     private final static long MAX_RSP_TIME = Formats.getTimeMillis(ServerConfig.getMaxRspTime());
-    final static boolean timer1Enabled = MAX_REQ_TIME != -1 || MAX_RSP_TIME != -1;
+    private final static int TIMER_WHEEL_SIZE = 512;
     private final String protocol;
     private final boolean https;
     private final ContextList contexts;
     private final ServerSocketChannel socketChannel;
-    private final Selector selector;
-    private final SelectionKey listenerKey;
+    /* the listening sockets, the first one is socketChannel, the others only exist with SO_REUSEPORT */
+    private final ServerSocketChannel[] listeners;
+    private final boolean reusePort;
+    private final Dispatcher[] dispatchers;
+    private final Acceptor acceptor;
+    private final boolean leastLoadBalancing;
+    private final int eventBatchSize;
+    private int pipelineDepth;
+    private final boolean nonBlocking;
     private final Set<HttpConnection> idleConnections;
     private final Set<HttpConnection> allConnections;
-    /* following two are used to keep track of the times
-     * when a connection/request is first received
-     * and when we start to send the response
-     */
-    private final Set<HttpConnection> requestConnections;
-    private final Set<HttpConnection> responseConnections;
-    private final Object lock = new Object();
-    private final Timer timer;
     private final Logger logger = LoggerFactory.getLogger(ServerImpl.class);
-    Dispatcher dispatcher;
     private Executor executor;
     private HttpsConfigurator httpsConfig;
     private SSLContext sslContext;
-    private List<Event> events;
     private volatile boolean finished = false;
     private volatile boolean terminating = false;
+    /* completed once the server has stopped */
+    private final CompletableFuture<Void> stopped = new CompletableFuture<>();
+    private final DateCache dateCache = new DateCache();
     private boolean bound = false;
     private boolean started = false;
-    private volatile long time;  /* current time */
-    /* number of clock ticks since server started */
-    private Timer timer1;
     private int exchangeCount = 0;
+    /* accessed only by the thread accepting connections */
+    private int nextDispatcher = 0;
 
     protected ServerImpl(String protocol, InetSocketAddress address, int backlog) throws IOException {
         this.protocol = protocol;
         https = protocol.equalsIgnoreCase("https");
         contexts = new ContextList();
         socketChannel = ServerSocketChannel.open();
+        dispatchers = new Dispatcher[ServerConfig.getDispatcherCount()];
+        long timerResolution = ServerConfig.getTimerResolution();
+        for (int i = 0; i < dispatchers.length; ++i) {
+            dispatchers[i] = new Dispatcher(i, timerResolution);
+        }
+        SocketOption<Boolean> reusePortOption = null;
+        if (ServerConfig.isReusePort()) {
+            reusePortOption = findReusePort(socketChannel);
+            if (reusePortOption == null) {
+                logger.warn("SO_REUSEPORT is not supported, using a single listening socket");
+            }
+        }
+        reusePort = reusePortOption != null && dispatchers.length > 1;
+        listeners = new ServerSocketChannel[reusePort ? dispatchers.length : 1];
+        listeners[0] = socketChannel;
+        for (int i = 1; i < listeners.length; ++i) {
+            listeners[i] = ServerSocketChannel.open();
+        }
+        if (reusePort) {
+            for (ServerSocketChannel listener : listeners) {
+                listener.setOption(reusePortOption, true);
+            }
+        }
         if (address != null) {
-            ServerSocket socket = socketChannel.socket();
-            socket.bind(address, backlog);
+            bindListeners(address, backlog);
             bound = true;
         }
-        selector = Selector.open();
-        socketChannel.configureBlocking(false);
-        listenerKey = socketChannel.register(selector, SelectionKey.OP_ACCEPT);
-        dispatcher = new Dispatcher();
-        idleConnections = Collections.synchronizedSet(new HashSet<>());
-        allConnections = Collections.synchronizedSet(new HashSet<>());
-        requestConnections = Collections.synchronizedSet(new HashSet<>());
-        responseConnections = Collections.synchronizedSet(new HashSet<>());
-        time = System.currentTimeMillis();
-        timer = new Timer("server-timer", true);
-        timer.schedule(new ServerTimerTask(), CLOCK_TICK, CLOCK_TICK);
-        if (timer1Enabled) {
-            timer1 = new Timer("server-timer1", true);
-            timer1.schedule(new ServerTimerTask1(), TIMER_MILLIS, TIMER_MILLIS);
-            logger.info("HttpServer timer1 enabled period in ms:  " + TIMER_MILLIS);
+        leastLoadBalancing = ServerConfig.isLeastLoadBalancing();
+        eventBatchSize = ServerConfig.getEventBatchSize();
+        nonBlocking = ServerConfig.isNonBlockingChannels();
+        /* with SO_REUSEPORT every dispatcher accepts from its own socket */
+        acceptor = new Acceptor(ServerConfig.isDedicatedAcceptor() && !reusePort);
+        for (int i = 0; i < listeners.length; ++i) {
+            listeners[i].configureBlocking(false);
+            if (acceptor.dedicated) {
+                listeners[i].register(acceptor.selector, SelectionKey.OP_ACCEPT);
+            } else {
+                dispatchers[i].listenerKey = listeners[i].register(dispatchers[i].selector, SelectionKey.OP_ACCEPT);
+            }
+        }
+        idleConnections = ConcurrentHashMap.newKeySet();
+        allConnections = ConcurrentHashMap.newKeySet();
+        if (MAX_REQ_TIME != -1 || MAX_RSP_TIME != -1) {
             logger.info("MAX_REQ_TIME:  " + MAX_REQ_TIME);
             logger.info("MAX_RSP_TIME:  " + MAX_RSP_TIME);
         }
-        events = new LinkedList<>();
         logger.info("HttpServer created " + protocol + " " + address);
     }
 
@@ -134,21 +167,57 @@ public class ServerImpl {
         if (address == null) {
             throw new NullPointerException("null address");
         }
+        bindListeners(address, backlog);
+        bound = true;
+    }
+
+    private void bindListeners(InetSocketAddress address, int backlog) throws IOException {
         ServerSocket socket = socketChannel.socket();
         socket.bind(address, backlog);
-        bound = true;
+        /* the others join the group on the port actually bound, which matters for port 0 */
+        SocketAddress local = socketChannel.getLocalAddress();
+        for (int i = 1; i < listeners.length; ++i) {
+            listeners[i].bind(local, backlog);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> findReusePort(ServerSocketChannel channel) {
+        /* looked up by name, StandardSocketOptions.SO_REUSEPORT only exists since java 9 */
+        for (SocketOption<?> option : channel.supportedOptions()) {
+            if (option.name().equals("SO_REUSEPORT") && option.type() == Boolean.class) {
+                return (SocketOption<Boolean>) option;
+            }
+        }
+        return null;
     }
 
     public void start() {
         if (!bound || started || finished) {
             throw new IllegalStateException("server in wrong state");
         }
+        /* pipelined requests can only run at once on a real executor */
+        pipelineDepth = ServerConfig.getPipelineDepth();
         if (executor == null) {
-            executor = Runnable::run;
+            if (ServerConfig.isVirtualThreads() && VirtualThreads.isSupported()) {
+                executor = VirtualThreads.newExecutor("server-exchange-");
+            } else {
+                if (ServerConfig.isVirtualThreads()) {
+                    logger.warn("Virtual threads are not supported, running exchanges on the dispatcher threads");
+                }
+                executor = Runnable::run;
+                pipelineDepth = 1;
+            }
         }
-        Thread t = new Thread(dispatcher);
         started = true;
-        t.start();
+        for (Dispatcher dispatcher : dispatchers) {
+            Thread t = new Thread(dispatcher, dispatcher.name);
+            t.start();
+        }
+        if (acceptor.dedicated) {
+            Thread t = new Thread(acceptor, "server-acceptor");
+            t.start();
+        }
     }
 
     public Executor getExecutor() {
@@ -177,46 +246,73 @@ public class ServerImpl {
         sslContext = config.getSSLContext();
     }
 
-    private void delay() {
-        Thread.yield();
+    public void stop(int delay) {
+        CompletableFuture<Void> future = stopAsync(delay);
         try {
-            Thread.sleep(200);
+            future.get(delay, TimeUnit.SECONDS);
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException ignored) {
         }
+        /* the deadline timer runs on a dispatcher, which may be the calling thread */
+        finish();
     }
 
-    public void stop(int delay) {
+    public CompletableFuture<Void> stopAsync(int delay) {
         if (delay < 0) {
             throw new IllegalArgumentException("negative delay parameter");
         }
-        terminating = true;
-        try {
-            socketChannel.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        selector.wakeup();
-        long latest = System.currentTimeMillis() + delay * 1000L;
-        while (System.currentTimeMillis() < latest) {
-            delay();
-            if (finished) {
-                break;
+        synchronized (this) {
+            if (terminating) {
+                return stopped;
             }
+            terminating = true;
         }
-        finished = true;
-        selector.wakeup();
-        synchronized (allConnections) {
-            for (HttpConnection c : allConnections) {
-                c.close();
+        for (ServerSocketChannel listener : listeners) {
+            try {
+                listener.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (delay == 0 || !started || getExchangeCount() == 0) {
+            finish();
+            return stopped;
+        }
+        /* the dispatchers close the idle connections, the last exchange to finish completes the stop */
+        TimerWheel.Timeout deadline = new TimerWheel.Timeout(dispatchers[0].wheel) {
+            void expire() {
+                finish();
+            }
+        };
+        deadline.schedule(System.currentTimeMillis() + delay * 1000L);
+        wakeupDispatchers();
+        return stopped;
+    }
+
+    public boolean isTerminating() {
+        return terminating;
+    }
+
+    DateCache getDateCache() {
+        return dateCache;
+    }
+
+    /* closes all connections and lets the dispatchers exit */
+    private void finish() {
+        synchronized (this) {
+            if (finished) {
+                return;
             }
+            finished = true;
+        }
+        wakeupDispatchers();
+        for (HttpConnection c : allConnections) {
+            c.close();
         }
         allConnections.clear();
         idleConnections.clear();
-        timer.cancel();
-        if (timer1Enabled) {
-            timer1.cancel();
-        }
+        stopped.complete(null);
     }
 
     public synchronized HttpContextImpl createContext(String path, HttpHandler handler) {
@@ -267,111 +363,146 @@ public class ServerImpl {
         exchangeCount++;
     }
 
+    private synchronized int getExchangeCount() {
+        return exchangeCount;
+    }
+
     public synchronized int endExchange() {
         exchangeCount--;
         return exchangeCount;
     }
 
     public void requestStarted(HttpConnection c) {
-        c.setCreationTime(time);
+        long now = System.currentTimeMillis();
+        c.setCreationTime(now);
         c.setState(HttpConnection.State.REQUEST);
-        requestConnections.add(c);
+        schedule(c, now, MAX_REQ_TIME);
     }
 
     public void requestCompleted(HttpConnection c) {
-        requestConnections.remove(c);
-        c.setResponseStartedTime(time);
-        responseConnections.add(c);
+        long now = System.currentTimeMillis();
+        c.setResponseStartedTime(now);
         c.setState(HttpConnection.State.RESPONSE);
+        schedule(c, now, MAX_RSP_TIME);
     }
 
     public void responseCompleted(HttpConnection c) {
-        responseConnections.remove(c);
         c.setState(HttpConnection.State.IDLE);
+        schedule(c, 0, -1);
+    }
+
+    /* (re)arms the timeout of the connection, or disarms it if the interval is -1 */
+    private void schedule(HttpConnection c, long now, long interval) {
+        TimerWheel.Timeout timeout = c.getTimeout();
+        if (timeout == null) {
+            return;
+        }
+        if (interval == -1) {
+            timeout.cancel();
+        } else {
+            timeout.schedule(now + interval);
+        }
     }
 
     public void addEvent(Event event) {
-        synchronized (lock) {
-            events.add(event);
-            selector.wakeup();
+        ExchangeImpl exchange = event.getExchange();
+        HttpConnection c = exchange.getConnection();
+        if (event instanceof WriteFinishedEvent) {
+            if (!exchange.responseWritten()) {
+                /* the response was already completed by an earlier event */
+                return;
+            }
+            /* the response of the next pipelined request may be written now */
+            c.getSequencer().complete(exchange.getTicket());
+            exchange.releaseRequest();
         }
+        c.getDispatcher().addEvent(event);
     }
 
-    private void closeConnection(HttpConnection conn) {
-        conn.close();
-        allConnections.remove(conn);
-        switch (conn.getState()) {
-            case REQUEST:
-                requestConnections.remove(conn);
-                break;
-            case RESPONSE:
-                responseConnections.remove(conn);
-                break;
-            case IDLE:
-                idleConnections.remove(conn);
-                break;
-        }
-        requestConnections.remove(conn);
-        responseConnections.remove(conn);
-        idleConnections.remove(conn);
+    private void wakeupDispatchers() {
+        for (Dispatcher dispatcher : dispatchers) {
+            dispatcher.selector.wakeup();
+        }
+        if (acceptor.dedicated) {
+            acceptor.selector.wakeup();
+        }
     }
 
-    class ServerTimerTask extends TimerTask {
-        public void run() {
-            LinkedList<HttpConnection> toClose = new LinkedList<>();
-            time = System.currentTimeMillis();
-            synchronized (idleConnections) {
-                for (HttpConnection c : idleConnections) {
-                    if (c.getTime() <= time) {
-                        toClose.add(c);
-                    }
-                }
-                for (HttpConnection c : toClose) {
-                    idleConnections.remove(c);
-                    allConnections.remove(c);
-                    c.close();
+    /**
+     * @return the total number of connections accepted by this server
+     */
+    public long getAcceptedConnections() {
+        return acceptor.accepted.get();
+    }
+
+    /**
+     * @return the number of connections accepted per second, measured over the last second
+     */
+    public long getAcceptRate() {
+        return acceptor.getRate();
+    }
+
+    /**
+     * @return the largest number of connections found waiting in the listen backlog by a single accept batch
+     */
+    public int getMaxAcceptBatch() {
+        return acceptor.maxBatch;
+    }
+
+    /**
+     * @return the number of accepted connections not yet registered by their dispatcher
+     */
+    public int getPendingConnections() {
+        int ret = 0;
+        for (Dispatcher dispatcher : dispatchers) {
+            ret += dispatcher.pendingConnections();
+        }
+        return ret;
+    }
+
+    /* picks the selector loop which will own a newly accepted connection */
+    private Dispatcher nextDispatcher() {
+        if (dispatchers.length == 1) {
+            return dispatchers[0];
+        }
+        if (leastLoadBalancing) {
+            Dispatcher ret = dispatchers[0];
+            for (int i = 1; i < dispatchers.length; ++i) {
+                if (dispatchers[i].load.get() < ret.load.get()) {
+                    ret = dispatchers[i];
                 }
             }
+            return ret;
         }
+        Dispatcher ret = dispatchers[nextDispatcher];
+        nextDispatcher = (nextDispatcher + 1) % dispatchers.length;
+        return ret;
     }
 
-    class ServerTimerTask1 extends TimerTask {
+    private void closeConnection(HttpConnection conn) {
+        conn.close();
+        allConnections.remove(conn);
+        idleConnections.remove(conn);
+    }
 
-        // runs every TIMER_MILLIS
-        public void run() {
-            LinkedList<HttpConnection> toClose = new LinkedList<>();
-            time = System.currentTimeMillis();
-            synchronized (requestConnections) {
-                if (MAX_REQ_TIME != -1) {
-                    for (HttpConnection c : requestConnections) {
-                        if (c.getCreationTime() + TIMER_MILLIS + MAX_REQ_TIME <= time) {
-                            toClose.add(c);
-                        }
-                    }
-                    for (HttpConnection c : toClose) {
-                        logger.info("closing: no request: " + c);
-                        requestConnections.remove(c);
-                        allConnections.remove(c);
-                        c.close();
-                    }
-                }
-            }
-            toClose = new LinkedList<>();
-            synchronized (responseConnections) {
-                if (MAX_RSP_TIME != -1) {
-                    for (HttpConnection c : responseConnections) {
-                        if (c.getResponseStartedTime() + TIMER_MILLIS + MAX_RSP_TIME <= time) {
-                            toClose.add(c);
-                        }
-                    }
-                    for (HttpConnection c : toClose) {
-                        logger.info("closing: no response: " + c);
-                        responseConnections.remove(c);
-                        allConnections.remove(c);
-                        c.close();
-                    }
-                }
+    class ConnectionTimeout extends TimerWheel.Timeout {
+        private final HttpConnection connection;
+
+        ConnectionTimeout(TimerWheel wheel, HttpConnection connection) {
+            super(wheel);
+            this.connection = connection;
+        }
+
+        void expire() {
+            switch (connection.getState()) {
+                case REQUEST:
+                    logger.info("closing: no request: " + connection);
+                    break;
+                case RESPONSE:
+                    logger.info("closing: no response: " + connection);
+                    break;
             }
+            closeConnection(connection);
         }
     }
 
@@ -385,6 +516,8 @@ public class ServerImpl {
         ExchangeImpl exchange;
         HttpContextImpl ctx;
         boolean rejected = false;
+        /* the position of this request among the requests of the connection */
+        long ticket = -1;
 
         Exchange(SocketChannel channel, String protocol, HttpConnection conn) {
             this.channel = channel;
@@ -397,7 +530,6 @@ public class ServerImpl {
             context = connection.getHttpContext();
             boolean newConnection;
             SSLEngine engine = null;
-            String requestLine;
             SSLStreams sslStreams = null;
             try {
                 if (context != null) {
@@ -407,83 +539,76 @@ public class ServerImpl {
                 } else {
                     /* figure out what kind of connection this is */
                     newConnection = true;
+                    ReadinessWaiter waiter = nonBlocking ? connection : null;
                     if (https) {
                         if (sslContext == null) {
                             logger.warn("SSL connection received. No https context created");
                             throw new HttpException("No SSL context established");
                         }
-                        sslStreams = new SSLStreams(httpsConfig, sslContext, channel);
-                        rawIn = sslStreams.getInputStream();
+                        sslStreams = new SSLStreams(httpsConfig, sslContext, channel, waiter);
+                        rawIn = new InputBufferStream(sslStreams.getInputStream());
                         rawOut = sslStreams.getOutputStream();
                         engine = sslStreams.getSSLEngine();
                         connection.setSslStreams(sslStreams);
                     } else {
-                        rawIn = new BufferedInputStream(new ReadStream(channel));
-                        rawOut = new WriteStream(channel);
+                        /* created by the dispatcher, which may have buffered the request head already */
+                        rawIn = connection.getReadStream();
+                        rawOut = new WriteStream(channel, waiter);
                     }
                     connection.setRawInputStream(rawIn);
                     connection.setRawOutputStream(rawOut);
                 }
-                Request req = new Request(rawIn, rawOut);
-                requestLine = req.requestLine();
-                if (requestLine == null) {
+                Request req = connection.takeRequest();
+                if (!req.read(rawIn, rawOut)) {
                     /* connection closed */
                     closeConnection(connection);
                     return;
                 }
-                int space = requestLine.indexOf(' ');
-                if (space == -1) {
+                ticket = connection.getSequencer().next();
+                RequestMethod method = req.method();
+                if (method == null) {
                     reject(HttpCode.BAD_REQUEST, "Bad request line");
                     return;
                 }
-                String method = requestLine.substring(0, space);
-                int start = space + 1;
-                space = requestLine.indexOf(' ', start);
-                if (space == -1) {
-                    reject(HttpCode.BAD_REQUEST, "Bad request line");
+                if (!req.parseTarget()) {
+                    reject(HttpCode.BAD_REQUEST, "Bad request target");
                     return;
                 }
-                String uriStr = requestLine.substring(start, space);
-                URI uri = new URI(uriStr);
-                start = space + 1;
-                String version = requestLine.substring(start);
-                HeaderMap headers = req.headers();
-                /* check key for illegal characters */
-                for (String k : headers.keySet()) {
-                    if (!Formats.isValidHeaderKey(k)) {
-                        reject(HttpCode.BAD_REQUEST, "Header key contains illegal characters");
-                        return;
-                    }
+                String version = req.version();
+                /* header names are checked for illegal characters while parsing */
+                if (!req.hasValidHeaders()) {
+                    reject(HttpCode.BAD_REQUEST, "Header key contains illegal characters");
+                    return;
                 }
+                RequestHeaders headers = req.rawHeaders();
                 /* checks for unsupported combinations of lengths and encodings */
-                if (headers.containsKey("Content-Length") &&
-                        (headers.containsKey("Transfer-encoding") || headers.get("Content-Length").size() > 1)) {
+                int lengths = headers.count(RequestHeaders.CONTENT_LENGTH);
+                if (lengths > 0 && (headers.contains(RequestHeaders.TRANSFER_ENCODING) || lengths > 1)) {
                     reject(HttpCode.BAD_REQUEST, "Conflicting or malformed headers detected");
                     return;
                 }
                 long clen = 0L;
-                String headerValue = null;
-                List<String> teValueList = headers.get("Transfer-encoding");
-                if (teValueList != null && !teValueList.isEmpty()) {
-                    headerValue = teValueList.get(0);
-                }
-                if (headerValue != null) {
-                    if (headerValue.equalsIgnoreCase("chunked") && teValueList.size() == 1) {
+                /* framing is decided on the raw header bytes */
+                int encoding = headers.indexOf(RequestHeaders.TRANSFER_ENCODING);
+                if (encoding != -1) {
+                    if (headers.valueEqualsIgnoreCase(encoding, "chunked") &&
+                            headers.count(RequestHeaders.TRANSFER_ENCODING) == 1) {
                         clen = -1L;
                     } else {
                         reject(HttpCode.NOT_IMPLEMENTED, "Unsupported Transfer-Encoding value");
                         return;
                     }
                 } else {
-                    headerValue = headers.getFirst("Content-Length");
-                    if (headerValue != null) {
-                        clen = Long.parseLong(headerValue);
+                    long length = headers.getLong(RequestHeaders.CONTENT_LENGTH);
+                    if (length != -1) {
+                        clen = length;
                     }
                     if (clen == 0) {
                         requestCompleted(connection);
                     }
                 }
-                ctx = contexts.findContext(protocol, uri.getPath());
+                /* route on the decoded path, without building the URI */
+                ctx = contexts.findContext(protocol, req.path());
                 if (ctx == null) {
                     reject(HttpCode.NOT_FOUND, "No context found for request");
                     return;
@@ -493,20 +618,21 @@ public class ServerImpl {
                     reject(HttpCode.INTERNAL_SERVER_ERROR, "No handler for context");
                     return;
                 }
-                exchange = new ExchangeImpl(method, uri, req, clen, connection);
-                String connectionHeader = headers.getFirst("Connection");
+                exchange = new ExchangeImpl(method, req, clen, connection);
+                exchange.setTicket(ticket);
+                int connectionHeader = headers.indexOf(RequestHeaders.CONNECTION);
                 HeaderMap rHeaders = exchange.getResponseHeaders();
-                if (connectionHeader != null && connectionHeader.equalsIgnoreCase("close")) {
+                if (connectionHeader != -1 && headers.valueEqualsIgnoreCase(connectionHeader, "close")) {
                     exchange.setClose(true);
                 }
                 if (version.equalsIgnoreCase("http/1.0")) {
                     exchange.setHttp10(true);
-                    if (connectionHeader == null) {
+                    if (connectionHeader == -1) {
                         exchange.setClose(true);
                         rHeaders.set("Connection", "close");
-                    } else if (connectionHeader.equalsIgnoreCase("keep-alive")) {
+                    } else if (headers.valueEqualsIgnoreCase(connectionHeader, "keep-alive")) {
                         rHeaders.set("Connection", "keep-alive");
-                        int idle = (int) (ServerConfig.getIdleInterval() / 1000);
+                        int idle = (int) ServerConfig.getIdleInterval();
                         int max = ServerConfig.getMaxIdleConnections();
                         String val = "timeout=" + idle + ", max=" + max;
                         rHeaders.set("Keep-Alive", val);
@@ -524,13 +650,16 @@ public class ServerImpl {
                     connection.setContext(ctx);
                     connection.setRawInputStream(rawIn);
                 }
+                if (clen == 0 && !exchange.isClose()) {
+                    dispatchPipelined();
+                }
                 /* check if client sent an Expert 100 Continue.
                  * In that case, need to send an interim response.
                  * In future API may be modified to allow app to
                  * be involved in this process.
                  */
-                String exp = headers.getFirst("Expect");
-                if (exp != null && exp.equalsIgnoreCase("100-continue")) {
+                int exp = headers.indexOf(RequestHeaders.EXPECT);
+                if (exp != -1 && headers.valueEqualsIgnoreCase(exp, "100-continue")) {
                     sendReply(HttpCode.CONTINUE, null);
                 }
                 /* uf is the list of filters seen/set by the user.
@@ -554,7 +683,13 @@ public class ServerImpl {
                 } else {
                     uc.doFilter(new HttpExchangeImpl(exchange));
                 }
+                exchange.releaseRequest();
 
+            } catch (RequestTooLargeException e) {
+                if (ticket < 0) {
+                    ticket = connection.getSequencer().next();
+                }
+                reject(e.getCode(), e.getMessage());
             } catch (IOException e1) {
                 logger.info("ServerImpl.Exchange (1)", e1);
                 closeConnection(connection);
@@ -568,6 +703,26 @@ public class ServerImpl {
             }
         }
 
+        /*
+         * Hands the next request of the connection over to another worker if it has been
+         * buffered completely, so that it runs while this one is handled. This request has no body,
+         * so nothing is read from the connection on its behalf anymore.
+         */
+        void dispatchPipelined() {
+            ReadStream in = connection.getReadStream();
+            if (in == null || connection.getSequencer().pending() >= pipelineDepth) {
+                return;
+            }
+            HeadScanner scanner = connection.getHeadScanner();
+            if (!scanner.scan(in.buffer())) {
+                return;
+            }
+            scanner.reset();
+            exchange.setPipelined(true);
+            requestStarted(connection);
+            executor.execute(new Exchange(channel, protocol, connection));
+        }
+
         /* used to link to 2 or more Filter.Chains together */
 
         void reject(HttpCode code, String message) {
@@ -578,13 +733,10 @@ public class ServerImpl {
 
         void sendReply(HttpCode code, String text) {
             try {
-                StringBuilder builder = new StringBuilder(512);
-                builder.
-                        append("HTTP/1.1 ").
-                        append(code.getCode()).
-                        append(' ').
-                        append(code.getMessage()).
-                        append("\r\n");
+                if (ticket >= 0) {
+                    connection.getSequencer().await(ticket);
+                }
+                StringBuilder builder = new StringBuilder(256);
                 if (text != null && text.length() != 0) {
                     builder.append("Content-Length: ")
                             .append(text.length()).append("\r\n")
@@ -594,8 +746,13 @@ public class ServerImpl {
                     text = "";
                 }
                 builder.append("\r\n").append(text);
-                String s = builder.toString();
-                byte[] b = s.getBytes("ISO8859_1");
+                /* the status line is written with the rest in one go */
+                byte[] status = StatusLines.of(code);
+                byte[] b = new byte[status.length + builder.length()];
+                System.arraycopy(status, 0, b, 0, status.length);
+                for (int i = 0; i < builder.length(); ++i) {
+                    b[status.length + i] = (byte) builder.charAt(i);
+                }
                 rawOut.write(b);
                 rawOut.flush();
             } catch (IOException e) {
@@ -617,9 +774,186 @@ public class ServerImpl {
         }
     }
 
-    class Dispatcher implements Runnable {
+    class Acceptor implements Runnable {
+        final boolean dedicated;
+        final Selector selector;
+        final AtomicLong accepted = new AtomicLong();
+        volatile int maxBatch;
+        private volatile long rate;
+        private long windowStart = System.currentTimeMillis();
+        private long windowCount;
+
+        Acceptor(boolean dedicated) throws IOException {
+            this.dedicated = dedicated;
+            this.selector = dedicated ? Selector.open() : null;
+        }
+
+        long getRate() {
+            /* nothing was accepted during the last full window */
+            if (System.currentTimeMillis() - windowStart > 2000) {
+                return 0;
+            }
+            return rate;
+        }
+
+        /* with SO_REUSEPORT several dispatchers accept at once */
+        private synchronized void record(int batch) {
+            long now = System.currentTimeMillis();
+            long elapsed = now - windowStart;
+            if (elapsed >= 1000) {
+                rate = windowCount * 1000 / elapsed;
+                windowStart = now;
+                windowCount = 0;
+            }
+            windowCount += batch;
+            accepted.addAndGet(batch);
+            if (batch > maxBatch) {
+                maxBatch = batch;
+            }
+        }
 
+        /* drains the listen backlog, current is the dispatcher calling this or null */
+        void acceptAll(ServerSocketChannel listener, Dispatcher current) throws IOException {
+            int batch = 0;
+            try {
+                SocketChannel chan;
+                while ((chan = listener.accept()) != null) {
+                    ++batch;
+                    // Set TCP_NO_DELAY, if appropriate
+                    if (ServerConfig.isNoDelay()) {
+                        chan.socket().setTcpNoDelay(true);
+                    }
+                    /* a dispatcher keeps what its own SO_REUSEPORT socket accepted */
+                    Dispatcher target = reusePort ? current : nextDispatcher();
+                    target.load.incrementAndGet();
+                    if (target == current) {
+                        target.register(chan);
+                    } else {
+                        target.addConnection(chan);
+                    }
+                }
+            } finally {
+                if (batch > 0) {
+                    record(batch);
+                }
+            }
+        }
+
+        public void run() {
+            while (!finished) {
+                try {
+                    selector.select(1000);
+                    selector.selectedKeys().clear();
+                    if (!terminating) {
+                        acceptAll(socketChannel, null);
+                    }
+                } catch (IOException e) {
+                    logger.info("Acceptor (1)", e);
+                } catch (Exception e) {
+                    logger.info("Acceptor (2)", e);
+                }
+            }
+            try {
+                selector.close();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    class Dispatcher implements Runnable {
+        final Selector selector;
+        final String name;
+        /* expires the timeouts of the connections owned by this dispatcher */
+        final TimerWheel wheel;
+        /* the key of the listening socket this dispatcher accepts from, if any */
+        SelectionKey listenerKey;
         final LinkedList<HttpConnection> connectionsToRegister = new LinkedList<>();
+        /* number of connections owned by this dispatcher */
+        final AtomicInteger load = new AtomicInteger();
+        /* both queues are filled by other threads and drained by this one */
+        private final Queue<Event> events = new ConcurrentLinkedQueue<>();
+        private final Queue<SocketChannel> accepted = new ConcurrentLinkedQueue<>();
+        /* set by the first producer after a drain, so that only it wakes the selector */
+        private final AtomicBoolean wakeupPending = new AtomicBoolean();
+        /* the thread running this dispatcher, set when it starts */
+        private volatile Thread thread;
+
+        Dispatcher(int index, long timerResolution) throws IOException {
+            selector = Selector.open();
+            name = "server-dispatcher-" + index;
+            wheel = new TimerWheel(timerResolution, TIMER_WHEEL_SIZE, this::timerStarted);
+        }
+
+        void addEvent(Event event) {
+            events.offer(event);
+            wakeup();
+        }
+
+        /* hands over a channel accepted by another thread */
+        void addConnection(SocketChannel channel) {
+            accepted.offer(channel);
+            wakeup();
+        }
+
+        private void wakeup() {
+            if (wakeupPending.compareAndSet(false, true)) {
+                selector.wakeup();
+            }
+        }
+
+        /*
+         * The selector waits for a second while the wheel is empty, so a timeout scheduled
+         * by another thread has it select again with the tick of the wheel.
+         */
+        private void timerStarted() {
+            if (Thread.currentThread() != thread) {
+                wakeup();
+            }
+        }
+
+        /* called by the workers waiting for the channel of a non-blocking connection, with the ops they all await */
+        void setInterest(HttpConnection c, int ops) throws IOException {
+            try {
+                c.getSelectionKey().interestOps(ops);
+            } catch (CancelledKeyException e) {
+                throw new IOException("connection closed");
+            }
+            wakeup();
+        }
+
+        int pendingConnections() {
+            return accepted.size();
+        }
+
+        void connectionClosed() {
+            load.decrementAndGet();
+        }
+
+        void register(SocketChannel chan) {
+            try {
+                chan.configureBlocking(false);
+                SelectionKey newKey = chan.register(selector, SelectionKey.OP_READ);
+                HttpConnection c = new HttpConnection(ServerImpl.this);
+                c.setDispatcher(this);
+                c.setTimeout(new ConnectionTimeout(wheel, c));
+                c.setSelectionKey(newKey);
+                c.setChannel(chan);
+                if (!https) {
+                    c.setReadStream(new ReadStream(chan, nonBlocking ? c : null));
+                }
+                newKey.attach(c);
+                requestStarted(c);
+                allConnections.add(c);
+            } catch (IOException e) {
+                logger.info("Dispatcher (9)", e);
+                load.decrementAndGet();
+                try {
+                    chan.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
 
         private void handleEvent(Event r) {
             ExchangeImpl t = r.getExchange();
@@ -629,21 +963,34 @@ public class ServerImpl {
 
                     int exchanges = endExchange();
                     if (terminating && exchanges == 0) {
-                        finished = true;
+                        finish();
+                        return;
+                    }
+                    if (t.isPipelined()) {
+                        /* the connection belongs to the next pipelined exchange now */
+                        if (t.isClose()) {
+                            closeConnection(c);
+                        }
+                        return;
                     }
                     responseCompleted(c);
                     LeftOverInputStream is = t.getOriginalInputStream();
                     if (!is.isEOF()) {
                         t.setClose(true);
                     }
-                    if (t.isClose() || idleConnections.size() >= MAX_IDLE_CONNECTIONS) {
+                    if (t.isClose() || terminating || idleConnections.size() >= MAX_IDLE_CONNECTIONS) {
                         c.close();
                         allConnections.remove(c);
                     } else {
                         if (is.isDataBuffered()) {
-                            /* don't re-enable the interest ops, just handle it */
                             requestStarted(c);
-                            handle(c.getChannel(), c);
+                            if (c.getReadStream() == null || headReceived(c, false)) {
+                                /* don't re-enable the interest ops, just handle it */
+                                handle(c.getChannel(), c);
+                            } else {
+                                /* wait for the rest of the pipelined request head */
+                                connectionsToRegister.add(c);
+                            }
                         } else {
                             connectionsToRegister.add(c);
                         }
@@ -655,37 +1002,59 @@ public class ServerImpl {
             }
         }
 
+        /* while stopping, idle connections are closed instead of waiting for another request */
+        private void closeIdleConnections() {
+            for (HttpConnection c : idleConnections) {
+                if (c.getDispatcher() == this) {
+                    closeConnection(c);
+                }
+            }
+        }
+
         void reRegister(HttpConnection c) {
             /* re-register with selector */
             try {
-                SocketChannel chan = c.getChannel();
-                chan.configureBlocking(false);
-                SelectionKey key = chan.register(selector, SelectionKey.OP_READ);
-                key.attach(c);
-                c.setSelectionKey(key);
-                c.setTime(time + IDLE_INTERVAL);
+                if (nonBlocking) {
+                    /* the key is still registered, just resume reading */
+                    c.getSelectionKey().interestOps(SelectionKey.OP_READ);
+                } else {
+                    SocketChannel chan = c.getChannel();
+                    chan.configureBlocking(false);
+                    SelectionKey key = chan.register(selector, SelectionKey.OP_READ);
+                    key.attach(c);
+                    c.setSelectionKey(key);
+                }
+                if (c.getState() == HttpConnection.State.REQUEST) {
+                    /* part of the next request has arrived, it is already timed */
+                    return;
+                }
+                long deadline = System.currentTimeMillis() + IDLE_INTERVAL;
+                c.setTime(deadline);
+                c.getTimeout().schedule(deadline);
                 idleConnections.add(c);
-            } catch (IOException e) {
+            } catch (IOException | CancelledKeyException e) {
                 logger.info("Dispatcher(8)", e);
                 c.close();
             }
         }
 
         public void run() {
+            thread = Thread.currentThread();
             while (!finished) {
                 try {
-                    List<Event> list = null;
-                    synchronized (lock) {
-                        if (events.size() > 0) {
-                            list = events;
-                            events = new LinkedList<>();
-                        }
+                    /* must be cleared before draining, producers arriving later wake the selector again */
+                    wakeupPending.set(false);
+
+                    SocketChannel channel;
+                    while ((channel = accepted.poll()) != null) {
+                        register(channel);
                     }
 
-                    if (list != null) {
-                        for (Event r : list) {
-                            handleEvent(r);
-                        }
+                    Event event;
+                    int handled = 0;
+                    while (handled < eventBatchSize && (event = events.poll()) != null) {
+                        handleEvent(event);
+                        ++handled;
                     }
 
                     for (HttpConnection c : connectionsToRegister) {
@@ -693,7 +1062,21 @@ public class ServerImpl {
                     }
                     connectionsToRegister.clear();
 
-                    selector.select(1000);
+                    if (terminating) {
+                        closeIdleConnections();
+                    }
+
+                    if (!events.isEmpty()) {
+                        /* the batch was cut short, only poll for readiness */
+                        selector.selectNow();
+                    } else if (wheel.isEmpty()) {
+                        selector.select(1000);
+                    } else {
+                        selector.select(wheel.getTickMillis());
+                    }
+                    long now = System.currentTimeMillis();
+                    wheel.advance(now);
+                    dateCache.update(now);
 
                     /* process the selected list now  */
                     Set<SelectionKey> selected = selector.selectedKeys();
@@ -701,40 +1084,35 @@ public class ServerImpl {
                     while (iter.hasNext()) {
                         SelectionKey key = iter.next();
                         iter.remove();
-                        if (key.equals(listenerKey)) {
+                        if (key == listenerKey) {
                             if (terminating) {
                                 continue;
                             }
-                            SocketChannel chan = socketChannel.accept();
-
-                            // Set TCP_NO_DELAY, if appropriate
-                            if (ServerConfig.isNoDelay()) {
-                                chan.socket().setTcpNoDelay(true);
-                            }
-
-                            if (chan == null) {
-                                continue; /* cancel something ? */
-                            }
-                            chan.configureBlocking(false);
-                            SelectionKey newKey = chan.register(selector, SelectionKey.OP_READ);
-                            HttpConnection c = new HttpConnection(ServerImpl.this);
-                            c.setSelectionKey(newKey);
-                            c.setChannel(chan);
-                            newKey.attach(c);
-                            requestStarted(c);
-                            allConnections.add(c);
+                            acceptor.acceptAll((ServerSocketChannel) key.channel(), this);
                         } else {
                             try {
-                                if (key.isReadable()) {
+                                if (key.isReadable() || key.isWritable()) {
                                     SocketChannel chan = (SocketChannel) key.channel();
                                     HttpConnection conn = (HttpConnection) key.attachment();
-                                    key.cancel();
-                                    chan.configureBlocking(true);
+                                    if (conn.signalReady(key)) {
+                                        /* a worker is waiting on this non-blocking channel */
+                                        continue;
+                                    }
                                     if (idleConnections.remove(conn)) {
                                         // was an idle connection so add it
                                         // to reqConnections set.
                                         requestStarted(conn);
                                     }
+                                    if (conn.getReadStream() != null && !headReceived(conn, true)) {
+                                        /* keep reading on this thread until the request head is complete */
+                                        continue;
+                                    }
+                                    if (nonBlocking) {
+                                        key.interestOps(0);
+                                    } else {
+                                        key.cancel();
+                                        chan.configureBlocking(true);
+                                    }
                                     handle(chan, conn);
                                 }
                             } catch (CancelledKeyException e) {
@@ -744,8 +1122,10 @@ public class ServerImpl {
                             }
                         }
                     }
-                    // call the selector just to process the cancelled keys
-                    selector.selectNow();
+                    if (!nonBlocking) {
+                        // call the selector just to process the cancelled keys
+                        selector.selectNow();
+                    }
                 } catch (IOException e) {
                     logger.info("Dispatcher (4)", e);
                 } catch (Exception e) {
@@ -759,6 +1139,25 @@ public class ServerImpl {
             }
         }
 
+        /*
+         * Checks if the buffered input of a http connection holds a complete request head,
+         * reading what is available from the channel first if asked to. A head which does not fit
+         * into the buffer is handed over as well, the worker then reads the rest of it.
+         */
+        private boolean headReceived(HttpConnection c, boolean read) throws IOException {
+            ReadStream in = c.getReadStream();
+            int count = read ? in.fillAvailable() : 0;
+            ByteBuffer buffer = in.buffer();
+            if (c.getHeadScanner().scan(buffer) || buffer.remaining() == buffer.capacity()) {
+                c.getHeadScanner().reset();
+                return true;
+            }
+            if (count == -1) {
+                throw new EOFException("connection closed before the request head was complete");
+            }
+            return false;
+        }
+
         private void handleException(SelectionKey key, Exception e) {
             HttpConnection conn = (HttpConnection) key.attachment();
             if (e != null) {
@@ -0,0 +1,32 @@
+package io.github.amayaframework.server.implementations;
+
+import io.github.amayaframework.http.HttpCode;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The status lines of all response codes, encoded once.
+ */
+final class StatusLines {
+    private static final byte[][] LINES;
+
+    static {
+        HttpCode[] codes = HttpCode.values();
+        LINES = new byte[codes.length][];
+        for (HttpCode code : codes) {
+            String line = "HTTP/1.1 " + code.getCode() + " " + code.getMessage() + "\r\n";
+            LINES[code.ordinal()] = line.getBytes(StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    private StatusLines() {
+    }
+
+    /**
+     * @param code the response code
+     * @return the bytes of the status line including the CRLF, which must not be modified
+     */
+    static byte[] of(HttpCode code) {
+        return LINES[code.ordinal()];
+    }
+}
@@ -0,0 +1,163 @@
+package io.github.amayaframework.server.implementations;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A hashed timing wheel. Timeouts are kept in doubly linked buckets indexed by their deadline tick,
+ * so scheduling and cancelling are O(1), and advancing the wheel only visits the buckets of elapsed ticks.
+ * Timeouts further away than one rotation stay in their bucket until their tick is reached.
+ * <p>
+ * Timeouts may be scheduled and cancelled from any thread, but the wheel must be advanced by one thread only.
+ * Expired timeouts are fired by that thread outside the wheel lock. As that thread may wait longer than a tick
+ * while the wheel is empty, it is notified when a timeout is scheduled into an empty wheel.
+ */
+class TimerWheel {
+    private final Timeout[] buckets;
+    private final int mask;
+    private final long tickMillis;
+    private final List<Timeout> expired = new ArrayList<>();
+    /* called outside the lock when the wheel stops being empty */
+    private final Runnable onFirstTimeout;
+    private long currentTick;
+    private volatile int size;
+
+    TimerWheel(long tickMillis, int wheelSize, Runnable onFirstTimeout) {
+        if (tickMillis < 1) {
+            throw new IllegalArgumentException("tick must be positive");
+        }
+        int length = Integer.highestOneBit(Math.max(wheelSize, 1) - 1) << 1;
+        this.buckets = new Timeout[Math.max(length, 1)];
+        this.mask = buckets.length - 1;
+        this.tickMillis = tickMillis;
+        this.onFirstTimeout = onFirstTimeout;
+        this.currentTick = System.currentTimeMillis() / tickMillis;
+    }
+
+    long getTickMillis() {
+        return tickMillis;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    private void schedule(Timeout timeout, long deadline) {
+        boolean first;
+        synchronized (this) {
+            first = size == 0;
+            place(timeout, deadline);
+        }
+        if (first) {
+            onFirstTimeout.run();
+        }
+    }
+
+    private void place(Timeout timeout, long deadline) {
+        if (timeout.scheduled) {
+            unlink(timeout);
+        }
+        /* round up, so that a timeout never fires early */
+        long tick = (deadline + tickMillis - 1) / tickMillis;
+        timeout.tick = Math.max(tick, currentTick + 1);
+        int index = (int) (timeout.tick & mask);
+        Timeout head = buckets[index];
+        timeout.prev = null;
+        timeout.next = head;
+        if (head != null) {
+            head.prev = timeout;
+        }
+        buckets[index] = timeout;
+        timeout.scheduled = true;
+        ++size;
+    }
+
+    private synchronized void cancel(Timeout timeout) {
+        if (timeout.scheduled) {
+            unlink(timeout);
+        }
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            buckets[(int) (timeout.tick & mask)] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.scheduled = false;
+        --size;
+    }
+
+    /**
+     * Moves the wheel to the given time and fires every timeout whose deadline has passed.
+     *
+     * @param now the current time in milliseconds
+     */
+    void advance(long now) {
+        long target = now / tickMillis;
+        synchronized (this) {
+            if (target <= currentTick) {
+                return;
+            }
+            /* after a long stall every bucket is visited exactly once */
+            long from = Math.max(currentTick + 1, target - buckets.length + 1);
+            for (long tick = from; tick <= target && size > 0; ++tick) {
+                Timeout timeout = buckets[(int) (tick & mask)];
+                while (timeout != null) {
+                    Timeout next = timeout.next;
+                    if (timeout.tick <= target) {
+                        unlink(timeout);
+                        expired.add(timeout);
+                    }
+                    timeout = next;
+                }
+            }
+            currentTick = target;
+        }
+        if (expired.isEmpty()) {
+            return;
+        }
+        try {
+            for (Timeout timeout : expired) {
+                timeout.expire();
+            }
+        } finally {
+            expired.clear();
+        }
+    }
+
+    /**
+     * A timeout which can be rescheduled any number of times, but is placed in the wheel at most once.
+     */
+    abstract static class Timeout {
+        private final TimerWheel wheel;
+        private Timeout prev;
+        private Timeout next;
+        private long tick;
+        private boolean scheduled;
+
+        Timeout(TimerWheel wheel) {
+            this.wheel = wheel;
+        }
+
+        /**
+         * Schedules this timeout, replacing the previous deadline if any.
+         *
+         * @param deadline the absolute time in milliseconds
+         */
+        void schedule(long deadline) {
+            wheel.schedule(this, deadline);
+        }
+
+        void cancel() {
+            wheel.cancel(this);
+        }
+
+        abstract void expire();
+    }
+}
@@ -27,12 +27,15 @@ package io.github.amayaframework.server.interfaces;
 
 import io.github.amayaframework.http.HeaderMap;
 import io.github.amayaframework.http.HttpCode;
+import io.github.amayaframework.server.utils.QueryParameters;
+import io.github.amayaframework.server.utils.RequestMethod;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.URI;
+import java.nio.ByteBuffer;
 
 
 /**
@@ -64,6 +67,14 @@ import java.net.URI;
  * but may make the underlying TCP connection unusable for following exchanges.
  * The effect of failing to terminate an exchange is undefined, but will typically
  * result in resources failing to be freed/reused.
+ * <p>
+ * <b>Request state</b>
+ * <br>
+ * The server reuses the parsed request headers for the next request of the connection
+ * once the exchange has completed, that is once the handler has returned and the response has been sent.
+ * The map returned by {@link #getRequestHeaders()} is only valid until then and throws
+ * {@link IllegalStateException} when accessed afterwards, headers needed later must be copied. The method, protocol and target of the request,
+ * including the URI, path, query and query parameters, stay valid for the life of the exchange object.
  */
 public interface HttpExchange {
 
@@ -76,7 +87,8 @@ public interface HttpExchange {
      * In either of these cases, the values for the header name will be
      * presented in the order that they were included in the request.
      * <p>
-     * The keys in Map are case-insensitive.
+     * The keys in Map are case-insensitive. The Map is only valid until the exchange has completed,
+     * its methods throw {@link IllegalStateException} once the next request of the connection reuses it.
      *
      * @return a read-only Map which can be used to access request headers
      */
@@ -102,6 +114,39 @@ public interface HttpExchange {
      */
     URI getRequestURI();
 
+    /**
+     * Get the path of the request URI as it was sent, without decoding.
+     * The server's exchanges return it without parsing the URI,
+     * the default implementation takes it from {@link #getRequestURI()}.
+     *
+     * @return the raw path of the request URI
+     */
+    default String getRawPath() {
+        String path = getRequestURI().getRawPath();
+        return path == null ? "" : path;
+    }
+
+    /**
+     * Get the query of the request URI as it was sent, without decoding.
+     * The default implementation takes it from {@link #getRequestURI()}.
+     *
+     * @return the raw query of the request URI, or null if it has none
+     */
+    default String getRawQuery() {
+        return getRequestURI().getRawQuery();
+    }
+
+    /**
+     * Get the parameters of the request query. The server's exchanges parse them on the first call
+     * and return the same instance for the rest of the exchange,
+     * the default implementation returns a new instance on every call.
+     *
+     * @return the query parameters, empty if the request has no query
+     */
+    default QueryParameters getQueryParameters() {
+        return new QueryParameters(getRawQuery());
+    }
+
     /**
      * Get the request method
      *
@@ -109,6 +154,16 @@ public interface HttpExchange {
      */
     String getRequestMethod();
 
+    /**
+     * Get the request method as a token. Standard methods are the constants of {@link RequestMethod}
+     * and can be compared by identity. The default implementation resolves {@link #getRequestMethod()}.
+     *
+     * @return the request method
+     */
+    default RequestMethod getMethod() {
+        return RequestMethod.of(getRequestMethod());
+    }
+
     /**
      * Get the HttpContext for this exchange
      *
@@ -189,6 +244,51 @@ public interface HttpExchange {
      */
     void sendResponseHeaders(HttpCode code, long responseLength) throws IOException;
 
+    /**
+     * Sends a complete response with the current set of response headers and the given body,
+     * and terminates the exchange. The status line, headers and body are written to the connection at once,
+     * which suits small responses.
+     * <p>
+     * The content length is set to the length of the body. For a HEAD request only the headers are sent.
+     * Neither this method nor {@link #sendResponseHeaders(HttpCode, long)} may have been called before.
+     *
+     * <p>
+     * The default implementation sends the response through {@link #sendResponseHeaders(HttpCode, long)}
+     * and {@link #getResponseBody()}.
+     *
+     * @param code the response code to send
+     * @param body the response body, may be empty
+     * @throws IOException if sending fails
+     */
+    default void sendResponse(HttpCode code, byte[] body) throws IOException {
+        if (RequestMethod.HEAD.getName().equals(getRequestMethod())) {
+            /* the body is not sent, but its length is */
+            getResponseHeaders().set("Content-length", Integer.toString(body.length));
+            sendResponseHeaders(code, -1);
+        } else {
+            sendResponseHeaders(code, body.length == 0 ? -1 : body.length);
+            if (body.length > 0) {
+                getResponseBody().write(body);
+            }
+        }
+        close();
+    }
+
+    /**
+     * Sends a complete response with the remaining bytes of the buffer as the body,
+     * as {@link #sendResponse(HttpCode, byte[])} does. The position of the buffer is moved to its limit.
+     * The default implementation copies the bytes to an array.
+     *
+     * @param code the response code to send
+     * @param body the response body, may be empty
+     * @throws IOException if sending fails
+     */
+    default void sendResponse(HttpCode code, ByteBuffer body) throws IOException {
+        byte[] bytes = new byte[body.remaining()];
+        body.get(bytes);
+        sendResponse(code, bytes);
+    }
+
     /**
      * Returns the address of the remote entity invoking this request
      *
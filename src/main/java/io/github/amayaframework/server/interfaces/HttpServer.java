@@ -28,6 +28,7 @@ package io.github.amayaframework.server.interfaces;
 import java.io.IOException;
 import java.net.BindException;
 import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
 
 
@@ -140,6 +141,28 @@ public interface HttpServer {
      */
     void stop(int delay);
 
+    /**
+     * stops this server without blocking. The listening socket is closed and idle
+     * connections are closed immediately. Exchanges in progress may complete, their
+     * responses are sent with <code>Connection: close</code>. As soon as the last of them
+     * has finished, or else when approximately <i>delay</i> seconds have elapsed,
+     * all remaining TCP connections are closed and the returned future is completed.
+     * Once stopped, a HttpServer cannot be re-used. <p>
+     *
+     * The default implementation calls {@link #stop(int)} on a new thread.
+     *
+     * @param delay the maximum time in seconds to wait until exchanges have finished.
+     * @return a future completed when the server has stopped
+     * @throws IllegalArgumentException if delay is less than zero.
+     */
+    default CompletableFuture<Void> stopAsync(int delay) {
+        if (delay < 0) {
+            throw new IllegalArgumentException("negative delay parameter");
+        }
+        /* stop blocks for up to the delay, so it does not run on a shared pool */
+        return CompletableFuture.runAsync(() -> stop(delay), task -> new Thread(task, "HTTP-Server-Stop").start());
+    }
+
     /**
      * Creates a HttpContext. A HttpContext represents a mapping from a
      * URI path to an exchange handler on this HttpServer. Once created, all requests
@@ -211,4 +234,40 @@ public interface HttpServer {
      * @return the address/port number the server is listening on
      */
     InetSocketAddress getAddress();
+
+    /**
+     * returns the total number of connections accepted by this server
+     *
+     * @return the number of accepted connections, or -1 if the server does not count them
+     */
+    default long getAcceptedConnections() {
+        return -1;
+    }
+
+    /**
+     * returns the number of connections accepted per second, measured over the last second
+     *
+     * @return the accept rate, or -1 if the server does not measure it
+     */
+    default long getAcceptRate() {
+        return -1;
+    }
+
+    /**
+     * returns the largest number of connections found waiting in the listen backlog by a single accept batch
+     *
+     * @return the largest accept batch, or -1 if the server does not accept in batches
+     */
+    default int getMaxAcceptBatch() {
+        return -1;
+    }
+
+    /**
+     * returns the number of accepted connections not yet registered by their dispatcher
+     *
+     * @return the number of pending connections, or -1 if the server does not count them
+     */
+    default int getPendingConnections() {
+        return -1;
+    }
 }
@@ -0,0 +1,18 @@
+package io.github.amayaframework.server.streams;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A stream which can write the bytes of a buffer as they are, so that a direct buffer
+ * reaches the channel without being copied to an array first.
+ */
+public interface ByteBufferWriter {
+    /**
+     * Writes all remaining bytes of the buffer, moving its position to its limit.
+     *
+     * @param src the bytes to write
+     * @throws IOException if the stream is closed or the write fails
+     */
+    void write(ByteBuffer src) throws IOException;
+}
@@ -39,70 +39,77 @@ public class ChunkedInputStream extends LeftOverInputStream {
      * Maximum chunk header size of 2KB + 2 bytes for CRLF
      */
     private final static int MAX_CHUNK_HEADER_SIZE = 2050;
+    /* the source, if the framing can be read from its buffer directly */
+    private final InputBuffer buffer;
     private int remaining;
     private boolean needToReadHeader = true;
 
     public ChunkedInputStream(ExchangeImpl exchange, InputStream src) {
         super(exchange, src);
+        this.buffer = src instanceof InputBuffer ? (InputBuffer) src : null;
     }
 
-    private int numeric(char[] arr, int nChars) throws IOException {
-        int len = 0;
-        for (int i = 0; i < nChars; i++) {
-            char c = arr[i];
-            int val;
-            if (c >= '0' && c <= '9') {
-                val = c - '0';
-            } else if (c >= 'a' && c <= 'f') {
-                val = c - 'a' + 10;
-            } else if (c >= 'A' && c <= 'F') {
-                val = c - 'A' + 10;
-            } else {
-                throw new IOException("invalid chunk length");
+    private static int hex(int c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        } else if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    /* reads a byte of the chunk framing, straight from the buffer of the source if it has one */
+    private int readFraming() throws IOException {
+        if (buffer == null) {
+            return in.read();
+        }
+        while (!buffer.buffer().hasRemaining()) {
+            if (buffer.fill() == -1) {
+                return -1;
             }
-            len = len * 16 + val;
         }
-        return len;
+        return buffer.buffer().get() & 0xFF;
     }
 
-    /* read the chunk header line and return the chunk length
+    /* read the chunk header line and return the chunk length,
+     * which is accumulated while the hex digits are read.
      * any chunk extensions are ignored
      */
     private int readChunkHeader() throws IOException {
+        int length = 0;
+        int digits = 0;
         boolean gotCR = false;
-        int c;
-        char[] len_arr = new char[16];
-        int len_size = 0;
-        boolean end_of_len = false;
-        int read = 0;
-
-        while ((c = in.read()) != -1) {
-            char ch = (char) c;
-            read++;
-            if ((len_size == len_arr.length - 1) ||
-                    (read > MAX_CHUNK_HEADER_SIZE)) {
-                throw new IOException("invalid chunk header");
+        boolean extension = false;
+        for (int read = 0; read < MAX_CHUNK_HEADER_SIZE; ++read) {
+            int c = readFraming();
+            if (c == -1) {
+                throw new IOException("end of stream reading chunk header");
             }
             if (gotCR) {
-                if (ch == LF) {
-                    return numeric(len_arr, len_size);
-                } else {
-                    gotCR = false;
+                if (c != LF || digits == 0) {
+                    throw new IOException("invalid chunk header");
                 }
-                if (!end_of_len) {
-                    len_arr[len_size++] = ch;
+                return length;
+            }
+            if (c == CR) {
+                gotCR = true;
+            } else if (c == ';') {
+                extension = true;
+            } else if (!extension) {
+                int digit = hex(c);
+                if (digit == -1) {
+                    throw new IOException("invalid chunk length");
                 }
-            } else {
-                if (ch == CR) {
-                    gotCR = true;
-                } else if (ch == ';') {
-                    end_of_len = true;
-                } else if (!end_of_len) {
-                    len_arr[len_size++] = ch;
+                if (length > Integer.MAX_VALUE >> 4) {
+                    throw new IOException("chunk length too large");
                 }
+                length = length << 4 | digit;
+                ++digits;
             }
         }
-        throw new IOException("end of stream reading chunk header");
+        throw new IOException("invalid chunk header");
     }
 
     protected int readImpl(byte[] b, int off, int len) throws IOException {
@@ -134,12 +141,12 @@ public class ChunkedInputStream extends LeftOverInputStream {
     }
 
     private void consumeCRLF() throws IOException {
-        char c;
-        c = (char) in.read(); /* CR */
+        int c;
+        c = readFraming(); /* CR */
         if (c != CR) {
             throw new IOException("invalid chunk end");
         }
-        c = (char) in.read(); /* LF */
+        c = readFraming(); /* LF */
         if (c != LF) {
             throw new IOException("invalid chunk end");
         }
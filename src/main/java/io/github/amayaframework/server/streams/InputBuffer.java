@@ -0,0 +1,29 @@
+package io.github.amayaframework.server.streams;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A stream whose buffered bytes can be scanned in place, so that a parser
+ * does not have to pull the request head through it byte by byte.
+ */
+public interface InputBuffer {
+    /**
+     * Returns the buffer holding the bytes which were received, but not consumed yet.
+     * They lie between its position and limit, and consuming them means advancing its position.
+     * The buffer is always backed by an accessible array.
+     *
+     * @return the buffer
+     */
+    ByteBuffer buffer();
+
+    /**
+     * Receives more bytes into the free space of the buffer, waiting until at least one is available.
+     * The bytes not consumed yet are moved to the start of the buffer first,
+     * so only offsets relative to its position stay valid.
+     *
+     * @return the number of bytes received, zero if the buffer is full, or -1 at the end of stream
+     * @throws IOException if an I/O error occurs
+     */
+    int fill() throws IOException;
+}
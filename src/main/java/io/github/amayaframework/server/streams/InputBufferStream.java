@@ -0,0 +1,99 @@
+package io.github.amayaframework.server.streams;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Buffers a stream which cannot expose its own buffer, such as the decrypted input of a https connection.
+ */
+public class InputBufferStream extends FilterInputStream implements InputBuffer {
+    private final static int BUFF_SIZE = 8 * 1024;
+    /* bytes read from the stream, but not consumed yet, always kept in read mode */
+    private final ByteBuffer buffer;
+
+    public InputBufferStream(InputStream in) {
+        super(in);
+        buffer = ByteBuffer.allocate(BUFF_SIZE);
+        buffer.flip();
+    }
+
+    @Override
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    @Override
+    public int fill() throws IOException {
+        buffer.compact();
+        try {
+            if (!buffer.hasRemaining()) {
+                return 0;
+            }
+            int read = in.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            if (read > 0) {
+                buffer.position(buffer.position() + read);
+            }
+            return read;
+        } finally {
+            buffer.flip();
+        }
+    }
+
+    public int read() throws IOException {
+        if (!buffer.hasRemaining() && fill() == -1) {
+            return -1;
+        }
+        return buffer.get() & 0xFF;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > (b.length - off)) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining()) {
+            if (len >= BUFF_SIZE) {
+                /* large reads bypass the buffer */
+                return in.read(b, off, len);
+            }
+            if (fill() == -1) {
+                return -1;
+            }
+        }
+        int willReturn = Math.min(buffer.remaining(), len);
+        buffer.get(b, off, willReturn);
+        return willReturn;
+    }
+
+    public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        int buffered = buffer.remaining();
+        if (buffered > 0) {
+            int skipped = (int) Math.min(buffered, n);
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+        return in.skip(n);
+    }
+
+    public int available() throws IOException {
+        return buffer.remaining() + in.available();
+    }
+
+    public boolean markSupported() {
+        return false;
+    }
+
+    public void mark(int readLimit) {
+    }
+
+    public void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+}
@@ -31,10 +31,12 @@ import io.github.amayaframework.server.utils.ServerConfig;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.locks.ReentrantLock;
 
 public abstract class LeftOverInputStream extends FilterInputStream {
     protected final ExchangeImpl exchange;
     private final byte[] one = new byte[1];
+    private final ReentrantLock lock = new ReentrantLock();
     protected boolean closed = false;
     protected boolean eof = false;
 
@@ -71,23 +73,33 @@ public abstract class LeftOverInputStream extends FilterInputStream {
 
     protected abstract int readImpl(byte[] b, int off, int len) throws IOException;
 
-    public synchronized int read() throws IOException {
-        if (closed) {
-            throw new IOException("Stream is closed");
-        }
-        int c = readImpl(one, 0, 1);
-        if (c == -1 || c == 0) {
-            return c;
-        } else {
-            return one[0] & 0xFF;
+    public int read() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IOException("Stream is closed");
+            }
+            int c = readImpl(one, 0, 1);
+            if (c == -1 || c == 0) {
+                return c;
+            } else {
+                return one[0] & 0xFF;
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
-    public synchronized int read(byte[] b, int off, int len) throws IOException {
-        if (closed) {
-            throw new IOException("Stream is closed");
+    public int read(byte[] b, int off, int len) throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IOException("Stream is closed");
+            }
+            return readImpl(b, off, len);
+        } finally {
+            lock.unlock();
         }
-        return readImpl(b, off, len);
     }
 
     /**
@@ -27,105 +27,189 @@ package io.github.amayaframework.server.streams;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
+import java.util.concurrent.locks.ReentrantLock;
 
-public class ReadStream extends InputStream {
+/**
+ * A buffered stream reading from a socket channel. The buffer belongs to the connection for its
+ * whole lifetime, so bytes of a pipelined request read together with the previous one are kept,
+ * and the dispatcher can fill it without blocking to find out whether a request head is complete.
+ */
+public class ReadStream extends InputStream implements InputBuffer {
     private final static int BUFF_SIZE = 8 * 1024;
     private final SocketChannel channel;
-    private final ByteBuffer channelBuf;
+    private final ReadinessWaiter waiter;
+    /* bytes read from the channel, but not consumed yet, always kept in read mode */
+    private final ByteBuffer buffer;
     private final byte[] one;
-    private ByteBuffer markBuf; /* reads may be satisfied from this buffer */
-    private boolean marked;
-    private boolean reset;
+    private final ReentrantLock lock = new ReentrantLock();
     private boolean closed, eof = false;
 
     public ReadStream(SocketChannel chan) {
+        this(chan, null);
+    }
+
+    /**
+     * @param chan   the channel to read from
+     * @param waiter used to wait for data if the channel is non-blocking, or <code>null</code>
+     */
+    public ReadStream(SocketChannel chan, ReadinessWaiter waiter) {
         this.channel = chan;
-        channelBuf = ByteBuffer.allocate(BUFF_SIZE);
-        channelBuf.clear();
+        this.waiter = waiter;
+        buffer = ByteBuffer.allocate(BUFF_SIZE);
+        buffer.flip();
         one = new byte[1];
-        closed = marked = reset = false;
+        closed = false;
     }
 
-    public synchronized int read(byte[] b) throws IOException {
-        return read(b, 0, b.length);
+    @Override
+    public ByteBuffer buffer() {
+        return buffer;
     }
 
-    public synchronized int read() throws IOException {
-        int result = read(one, 0, 1);
-        if (result == 1) {
-            return one[0] & 0xFF;
-        } else {
-            return -1;
+    @Override
+    public int fill() throws IOException {
+        lock.lock();
+        try {
+            if (closed)
+                throw new IOException("Stream closed");
+            if (eof)
+                return -1;
+            buffer.compact();
+            try {
+                if (!buffer.hasRemaining()) {
+                    return 0;
+                }
+                int read = readChannel(buffer);
+                if (read == -1) {
+                    eof = true;
+                }
+                return read;
+            } finally {
+                buffer.flip();
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
-    public synchronized int read(byte[] b, int off, int sourceLength) throws IOException {
-
-        int canReturn, willReturn;
-
-        if (closed)
-            throw new IOException("Stream closed");
-
-        if (eof) {
-            return -1;
+    /**
+     * Reads into the free space of the buffer what is available from the channel.
+     * Unlike {@link #fill()}, never waits for data, so the channel should be in non-blocking mode.
+     *
+     * @return the number of bytes read, possibly zero, or -1 if the end of stream has been reached
+     * @throws IOException if the stream is closed or the read fails
+     */
+    public int fillAvailable() throws IOException {
+        lock.lock();
+        try {
+            if (closed)
+                throw new IOException("Stream closed");
+            if (eof)
+                return -1;
+            buffer.compact();
+            try {
+                if (!buffer.hasRemaining()) {
+                    return 0;
+                }
+                int read = channel.read(buffer);
+                if (read == -1) {
+                    eof = true;
+                }
+                return read;
+            } finally {
+                buffer.flip();
+            }
+        } finally {
+            lock.unlock();
         }
+    }
 
-        if (off < 0 || sourceLength < 0 || sourceLength > (b.length - off)) {
-            throw new IndexOutOfBoundsException();
-        }
+    public int read(byte[] b) throws IOException {
+        return read(b, 0, b.length);
+    }
 
-        if (reset) { /* satisfy from markBuf */
-            canReturn = markBuf.remaining();
-            willReturn = Math.min(canReturn, sourceLength);
-            markBuf.get(b, off, willReturn);
-            if (canReturn == willReturn) {
-                reset = false;
-            }
-        } else { /* satisfy from channel */
-            channelBuf.clear();
-            if (sourceLength < BUFF_SIZE) {
-                channelBuf.limit(sourceLength);
+    public int read() throws IOException {
+        lock.lock();
+        try {
+            if (buffer.hasRemaining() && !closed) {
+                return buffer.get() & 0xFF;
             }
-            do {
-                willReturn = channel.read(channelBuf);
-            } while (willReturn == 0);
-            if (willReturn == -1) {
-                eof = true;
+            int result = read(one, 0, 1);
+            if (result == 1) {
+                return one[0] & 0xFF;
+            } else {
                 return -1;
             }
-            channelBuf.flip();
-            channelBuf.get(b, off, willReturn);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int read(byte[] b, int off, int sourceLength) throws IOException {
+        lock.lock();
+        try {
+            if (closed)
+                throw new IOException("Stream closed");
+
+            if (off < 0 || sourceLength < 0 || sourceLength > (b.length - off)) {
+                throw new IndexOutOfBoundsException();
+            }
 
-            if (marked) { /* copy into markBuf */
+            if (!buffer.hasRemaining()) {
+                if (eof) {
+                    return -1;
+                }
+                if (sourceLength >= BUFF_SIZE) {
+                    /* large reads bypass the buffer */
+                    int read = readChannel(ByteBuffer.wrap(b, off, sourceLength));
+                    if (read == -1) {
+                        eof = true;
+                    }
+                    return read;
+                }
+                buffer.clear();
+                int read;
                 try {
-                    markBuf.put(b, off, willReturn);
-                } catch (BufferOverflowException e) {
-                    marked = false;
+                    read = readChannel(buffer);
+                } finally {
+                    buffer.flip();
+                }
+                if (read == -1) {
+                    eof = true;
+                    return -1;
                 }
             }
+            int willReturn = Math.min(buffer.remaining(), sourceLength);
+            buffer.get(b, off, willReturn);
+            return willReturn;
+        } finally {
+            lock.unlock();
         }
-        return willReturn;
     }
 
-    public boolean markSupported() {
-        return true;
+    private int readChannel(ByteBuffer dst) throws IOException {
+        int read;
+        while ((read = channel.read(dst)) == 0) {
+            if (waiter != null) {
+                waiter.awaitReadable();
+            }
+        }
+        return read;
     }
 
     /* Does not query the OS socket */
-    public synchronized int available() throws IOException {
-        if (closed)
-            throw new IOException("Stream is closed");
-
-        if (eof)
-            return -1;
-
-        if (reset)
-            return markBuf.remaining();
-
-        return channelBuf.remaining();
+    public int available() throws IOException {
+        lock.lock();
+        try {
+            if (closed)
+                throw new IOException("Stream is closed");
+
+            return buffer.remaining();
+        } finally {
+            lock.unlock();
+        }
     }
 
     public void close() throws IOException {
@@ -135,22 +219,4 @@ public class ReadStream extends InputStream {
         channel.close();
         closed = true;
     }
-
-    public synchronized void mark(int readLimit) {
-        if (closed)
-            return;
-        markBuf = ByteBuffer.allocate(readLimit);
-        marked = true;
-        reset = false;
-    }
-
-    public synchronized void reset() throws IOException {
-        if (closed)
-            return;
-        if (!marked)
-            throw new IOException("Stream not marked");
-        marked = false;
-        reset = true;
-        markBuf.flip();
-    }
 }
@@ -0,0 +1,23 @@
+package io.github.amayaframework.server.streams;
+
+import java.io.IOException;
+
+/**
+ * Lets the streams of a non-blocking channel wait until it becomes readable or writable,
+ * without switching the channel to blocking mode.
+ */
+public interface ReadinessWaiter {
+    /**
+     * Blocks the calling thread until the channel has data to read.
+     *
+     * @throws IOException if the channel was closed while waiting
+     */
+    void awaitReadable() throws IOException;
+
+    /**
+     * Blocks the calling thread until the channel can accept more data.
+     *
+     * @throws IOException if the channel was closed while waiting
+     */
+    void awaitWritable() throws IOException;
+}
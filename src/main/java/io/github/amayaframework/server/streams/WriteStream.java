@@ -28,48 +28,83 @@ package io.github.amayaframework.server.streams;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
+import java.util.concurrent.locks.ReentrantLock;
 
-public class WriteStream extends java.io.OutputStream {
+public class WriteStream extends java.io.OutputStream implements ByteBufferWriter {
     private final SocketChannel channel;
+    private final ReadinessWaiter waiter;
     private final byte[] one;
+    private final ReentrantLock lock = new ReentrantLock();
     private ByteBuffer buf;
     private boolean closed;
 
     public WriteStream(SocketChannel channel) {
+        this(channel, null);
+    }
+
+    /**
+     * @param channel the channel to write to
+     * @param waiter  used to wait for buffer space if the channel is non-blocking, or <code>null</code>
+     */
+    public WriteStream(SocketChannel channel, ReadinessWaiter waiter) {
         this.channel = channel;
+        this.waiter = waiter;
         closed = false;
         one = new byte[1];
         buf = ByteBuffer.allocate(4096);
     }
 
-    public synchronized void write(int b) throws IOException {
-        one[0] = (byte) b;
-        write(one, 0, 1);
+    public void write(int b) throws IOException {
+        lock.lock();
+        try {
+            one[0] = (byte) b;
+            write(one, 0, 1);
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public synchronized void write(byte[] b) throws IOException {
+    public void write(byte[] b) throws IOException {
         write(b, 0, b.length);
     }
 
-    public synchronized void write(byte[] b, int off, int len) throws IOException {
-        int l = len;
-        if (closed)
-            throw new IOException("stream is closed");
+    public void write(byte[] b, int off, int len) throws IOException {
+        lock.lock();
+        try {
+            if (closed)
+                throw new IOException("stream is closed");
 
-        int cap = buf.capacity();
-        if (cap < len) {
-            int diff = len - cap;
-            buf = ByteBuffer.allocate(2 * (cap + diff));
+            int cap = buf.capacity();
+            if (cap < len) {
+                int diff = len - cap;
+                buf = ByteBuffer.allocate(2 * (cap + diff));
+            }
+            buf.clear();
+            buf.put(b, off, len);
+            buf.flip();
+            while (buf.hasRemaining()) {
+                if (channel.write(buf) == 0 && waiter != null) {
+                    waiter.awaitWritable();
+                }
+            }
+        } finally {
+            lock.unlock();
         }
-        buf.clear();
-        buf.put(b, off, len);
-        buf.flip();
-        int n;
-        while ((n = channel.write(buf)) < l) {
-            l -= n;
-            if (l == 0) {
-                return;
+    }
+
+    @Override
+    public void write(ByteBuffer src) throws IOException {
+        lock.lock();
+        try {
+            if (closed)
+                throw new IOException("stream is closed");
+            while (src.hasRemaining()) {
+                if (channel.write(src) == 0 && waiter != null) {
+                    waiter.awaitWritable();
+                }
             }
+        } finally {
+            lock.unlock();
         }
     }
 
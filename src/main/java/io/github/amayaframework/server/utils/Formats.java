@@ -10,8 +10,14 @@ public final class Formats {
     private static final String PATTERN = "EEE, dd MMM yyyy HH:mm:ss zzz";
     private static final TimeZone GMT_TZ = TimeZone.getTimeZone("GMT");
     private static final ThreadLocal<DateFormat> DATE_FORMAT;
+    /* the characters allowed in a token, such as a header name, indexed by byte value */
+    private static final boolean[] TOKEN_CHARS = new boolean[256];
 
     static {
+        String chars = "!#$%&'*+-.^_`|~0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ";
+        for (int i = 0; i < chars.length(); ++i) {
+            TOKEN_CHARS[chars.charAt(i)] = true;
+        }
         DATE_FORMAT = ThreadLocal.withInitial(() -> {
             DateFormat df = new SimpleDateFormat(PATTERN, Locale.US);
             df.setTimeZone(GMT_TZ);
@@ -34,20 +40,24 @@ public final class Formats {
         }
     }
 
+    /**
+     * @param c the byte value of a character, 0 to 255
+     * @return true if the character may appear in a token
+     */
+    public static boolean isTokenChar(int c) {
+        return TOKEN_CHARS[c];
+    }
+
     public static boolean isValidHeaderKey(String token) {
-        if (token == null) return false;
-
-        boolean isValidChar;
-        char[] chars = token.toCharArray();
-        String validSpecialChars = "!#$%&'*+-.^_`|~";
-        for (char c : chars) {
-            isValidChar = ((c >= 'a') && (c <= 'z')) ||
-                    ((c >= 'A') && (c <= 'Z')) ||
-                    ((c >= '0') && (c <= '9'));
-            if (!isValidChar && validSpecialChars.indexOf(c) == -1) {
+        if (token == null || token.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < token.length(); ++i) {
+            char c = token.charAt(i);
+            if (c >= TOKEN_CHARS.length || !TOKEN_CHARS[c]) {
                 return false;
             }
         }
-        return !token.isEmpty();
+        return true;
     }
 }
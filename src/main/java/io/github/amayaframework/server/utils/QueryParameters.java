@@ -0,0 +1,209 @@
+package io.github.amayaframework.server.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The parameters of a raw query string, such as {@code a=1&b=2&a=3}.
+ * The query is split on the first access, names are decoded then,
+ * and values are decoded from UTF-8 only when they are read.
+ * Parameters keep the order of the query and names may repeat.
+ * <p>
+ * Instances are not thread-safe.
+ */
+public final class QueryParameters {
+    private final String query;
+    private boolean parsed;
+    private int size;
+    private String[] names;
+    /* the bounds of the raw values in the query, or -1 if a parameter has no value */
+    private int[] starts;
+    private int[] ends;
+    private String[] values;
+
+    /**
+     * @param query the raw query, without the leading '?', or null if the request has none
+     */
+    public QueryParameters(String query) {
+        this.query = query;
+    }
+
+    private void parse() {
+        if (parsed) {
+            return;
+        }
+        parsed = true;
+        if (query == null || query.isEmpty()) {
+            return;
+        }
+        int capacity = 4;
+        names = new String[capacity];
+        starts = new int[capacity];
+        ends = new int[capacity];
+        int length = query.length();
+        int start = 0;
+        while (start <= length) {
+            int end = query.indexOf('&', start);
+            if (end == -1) {
+                end = length;
+            }
+            if (end > start) {
+                if (size == names.length) {
+                    capacity = size * 2;
+                    names = Arrays.copyOf(names, capacity);
+                    starts = Arrays.copyOf(starts, capacity);
+                    ends = Arrays.copyOf(ends, capacity);
+                }
+                int equals = start;
+                while (equals < end && query.charAt(equals) != '=') {
+                    ++equals;
+                }
+                if (equals == end) {
+                    names[size] = decode(query, start, end);
+                    starts[size] = -1;
+                    ends[size] = -1;
+                } else {
+                    names[size] = decode(query, start, equals);
+                    starts[size] = equals + 1;
+                    ends[size] = end;
+                }
+                ++size;
+            }
+            start = end + 1;
+        }
+        values = new String[size];
+    }
+
+    /**
+     * @return the raw query the parameters are parsed from, or null
+     */
+    public String getQuery() {
+        return query;
+    }
+
+    public int size() {
+        parse();
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public String getName(int index) {
+        parse();
+        checkIndex(index);
+        return names[index];
+    }
+
+    /**
+     * @param index the index of the parameter in the query
+     * @return the decoded value of the parameter, or null if it has no value
+     */
+    public String getValue(int index) {
+        parse();
+        checkIndex(index);
+        String value = values[index];
+        if (value == null && starts[index] != -1) {
+            value = decode(query, starts[index], ends[index]);
+            values[index] = value;
+        }
+        return value;
+    }
+
+    public boolean contains(String name) {
+        return indexOf(name) != -1;
+    }
+
+    /**
+     * @param name the name of the parameter
+     * @return the decoded value of the first parameter with the name,
+     * or null if there is none or it has no value
+     */
+    public String getFirst(String name) {
+        int index = indexOf(name);
+        return index == -1 ? null : getValue(index);
+    }
+
+    /**
+     * @param name the name of the parameter
+     * @return the decoded values of all parameters with the name, in the order of the query
+     */
+    public List<String> getAll(String name) {
+        parse();
+        List<String> ret = null;
+        for (int i = 0; i < size; ++i) {
+            if (names[i].equals(name)) {
+                if (ret == null) {
+                    ret = new ArrayList<>(2);
+                }
+                ret.add(getValue(i));
+            }
+        }
+        return ret == null ? Collections.emptyList() : ret;
+    }
+
+    private int indexOf(String name) {
+        parse();
+        for (int i = 0; i < size; ++i) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    /*
+     * Decodes '+' and %XX escapes of UTF-8 bytes. Malformed escapes are kept as they are.
+     */
+    private static String decode(String s, int start, int end) {
+        int i = start;
+        while (i < end && s.charAt(i) != '%' && s.charAt(i) != '+') {
+            ++i;
+        }
+        if (i == end) {
+            return s.substring(start, end);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(end - start);
+        for (i = start; i < end; ++i) {
+            char c = s.charAt(i);
+            if (c == '+') {
+                out.write(' ');
+            } else if (c == '%' && i + 2 < end && hex(s.charAt(i + 1)) != -1 && hex(s.charAt(i + 2)) != -1) {
+                out.write(hex(s.charAt(i + 1)) << 4 | hex(s.charAt(i + 2)));
+                i += 2;
+            } else if (c < 0x80) {
+                out.write(c);
+            } else {
+                int codePoint = s.codePointAt(i);
+                byte[] bytes = new String(Character.toChars(codePoint)).getBytes(StandardCharsets.UTF_8);
+                out.write(bytes, 0, bytes.length);
+                i += Character.charCount(codePoint) - 1;
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static int hex(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+}
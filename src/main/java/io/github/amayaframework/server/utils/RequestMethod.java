@@ -0,0 +1,115 @@
+package io.github.amayaframework.server.utils;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The method of a request. The standard methods are resolved to the shared constants of this class
+ * while parsing, so they can be compared by identity. Extension methods get a new instance
+ * per request and are compared by name.
+ */
+public final class RequestMethod {
+    public static final RequestMethod GET = new RequestMethod("GET", true);
+    public static final RequestMethod HEAD = new RequestMethod("HEAD", true);
+    public static final RequestMethod POST = new RequestMethod("POST", true);
+    public static final RequestMethod PUT = new RequestMethod("PUT", true);
+    public static final RequestMethod DELETE = new RequestMethod("DELETE", true);
+    public static final RequestMethod OPTIONS = new RequestMethod("OPTIONS", true);
+    public static final RequestMethod PATCH = new RequestMethod("PATCH", true);
+    public static final RequestMethod TRACE = new RequestMethod("TRACE", true);
+    public static final RequestMethod CONNECT = new RequestMethod("CONNECT", true);
+    /* in the order of how common they are */
+    private static final RequestMethod[] STANDARD = {
+            GET, POST, HEAD, PUT, DELETE, OPTIONS, PATCH, TRACE, CONNECT
+    };
+    private final String name;
+    private final boolean standard;
+
+    private RequestMethod(String name, boolean standard) {
+        this.name = name;
+        this.standard = standard;
+    }
+
+    /**
+     * Resolves a method from the bytes of a request line. Method names are case-sensitive.
+     *
+     * @param bytes the bytes holding the method
+     * @param start the start of the method
+     * @param end   the end of the method
+     * @return the shared constant of a standard method, a new instance for an extension method,
+     * or null if the bytes are not a valid token
+     */
+    public static RequestMethod of(byte[] bytes, int start, int end) {
+        int length = end - start;
+        outer:
+        for (RequestMethod method : STANDARD) {
+            String name = method.name;
+            if (name.length() != length) {
+                continue;
+            }
+            for (int i = 0; i < length; ++i) {
+                if (name.charAt(i) != bytes[start + i]) {
+                    continue outer;
+                }
+            }
+            return method;
+        }
+        if (length == 0) {
+            return null;
+        }
+        for (int i = start; i < end; ++i) {
+            if (!Formats.isTokenChar(bytes[i] & 0xFF)) {
+                return null;
+            }
+        }
+        return new RequestMethod(new String(bytes, start, length, StandardCharsets.ISO_8859_1), false);
+    }
+
+    /**
+     * @param name the method name, case-sensitive
+     * @return the shared constant of a standard method, or a new instance for an extension method
+     */
+    public static RequestMethod of(String name) {
+        for (RequestMethod method : STANDARD) {
+            if (method.name.equals(name)) {
+                return method;
+            }
+        }
+        if (!Formats.isValidHeaderKey(name)) {
+            throw new IllegalArgumentException("Invalid method: " + name);
+        }
+        return new RequestMethod(name, false);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return true if this is one of the constants of this class
+     */
+    public boolean isStandard() {
+        return standard;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof RequestMethod)) {
+            return false;
+        }
+        RequestMethod method = (RequestMethod) o;
+        return !standard && !method.standard && name.equals(method.name);
+    }
+
+    @Override
+    public int hashCode() {
+        return name.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
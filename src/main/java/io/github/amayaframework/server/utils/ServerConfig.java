@@ -29,13 +29,20 @@ public final class ServerConfig {
 
     private static final int DEFAULT_CLOCK_TICK = 10000; // 10 sec.
     /* These values must be a reasonable multiple of clockTick */
-    private static final long DEFAULT_IDLE_INTERVAL = 30; // 5 min
+    private static final long DEFAULT_IDLE_INTERVAL = 30; // 30 sec
     private static final int DEFAULT_MAX_IDLE_CONNECTIONS = 200;
     private static final long DEFAULT_MAX_REQ_TIME = -1; // default: forever
     private static final long DEFAULT_MAX_RSP_TIME = -1; // default: forever
     private static final long DEFAULT_TIMER_MILLIS = 1000;
     private static final int DEFAULT_MAX_REQ_HEADERS = 200;
     private static final long DEFAULT_DRAIN_AMOUNT = 64 * 1024;
+    private static final int DEFAULT_DISPATCHER_COUNT = 1;
+    private static final int DEFAULT_EVENT_BATCH_SIZE = 256;
+    private static final long DEFAULT_TIMER_RESOLUTION = 100;
+    private static final int DEFAULT_PIPELINE_DEPTH = 1;
+    private static final int DEFAULT_MAX_REQUEST_LINE_LENGTH = 8 * 1024;
+    private static final int DEFAULT_MAX_HEADER_BYTES = 64 * 1024;
+    private static final int DEFAULT_RESPONSE_BUFFER_SIZE = 8 * 1024;
     private static int clockTick = DEFAULT_CLOCK_TICK;
     private static long idleInterval = DEFAULT_IDLE_INTERVAL;
     // The maximum number of bytes to drain from an input stream
@@ -50,14 +57,51 @@ public final class ServerConfig {
     private static boolean debug = false;
     // the value of the TCP_NO_DELAY socket-level option
     private static boolean noDelay = false;
+    // the number of selector loops sharing the connections of one server
+    private static int dispatcherCount = DEFAULT_DISPATCHER_COUNT;
+    // assign accepted connections to the least loaded selector loop instead of round-robin
+    private static boolean leastLoadBalancing = false;
+    // accept connections on a separate thread instead of the first dispatcher
+    private static boolean dedicatedAcceptor = false;
+    // the maximum number of events handled by a dispatcher between two selects
+    private static int eventBatchSize = DEFAULT_EVENT_BATCH_SIZE;
+    // the tick of the timing wheels expiring idle, request and response timeouts, in milliseconds
+    private static long timerResolution = DEFAULT_TIMER_RESOLUTION;
+    // keep channels registered and non-blocking for their lifetime, toggling their interest ops instead
+    private static boolean nonBlockingChannels = false;
+    // run each exchange on its own virtual thread when no executor is set (java 21+)
+    private static boolean virtualThreads = false;
+    // the maximum number of pipelined requests of a connection executed at once
+    private static int pipelineDepth = DEFAULT_PIPELINE_DEPTH;
+    // open a SO_REUSEPORT listening socket per dispatcher, letting the kernel spread new connections
+    private static boolean reusePort = false;
+    // The maximum length of the request line, longer ones are rejected with 414.
+    // Lines longer than the connection buffer are collected while they are received
+    private static int maxRequestLineLength = DEFAULT_MAX_REQUEST_LINE_LENGTH;
+    // The maximum number of bytes of all header lines of a request, including their line ends,
+    // more are rejected with 431
+    private static int maxHeaderBytes = DEFAULT_MAX_HEADER_BYTES;
+    // The number of response bytes collected before they are written to the connection,
+    // the head and the writes to fixed length and http/1.0 bodies are coalesced up to it
+    private static int responseBufferSize = DEFAULT_RESPONSE_BUFFER_SIZE;
 
     private ServerConfig() {
     }
 
+    /**
+     * @return the clock tick
+     * @deprecated timeouts are driven by the dispatchers' timing wheels, see {@link #getTimerResolution()}
+     */
+    @Deprecated
     public static int getClockTick() {
         return clockTick;
     }
 
+    /**
+     * @param clockTick the clock tick
+     * @deprecated timeouts are driven by the dispatchers' timing wheels, see {@link #setTimerResolution(long)}
+     */
+    @Deprecated
     public static void setClockTick(int clockTick) {
         ServerConfig.clockTick = clockTick;
     }
@@ -110,10 +154,20 @@ public final class ServerConfig {
         ServerConfig.maxRspTime = maxRspTime;
     }
 
+    /**
+     * @return the timer period
+     * @deprecated timeouts are driven by the dispatchers' timing wheels, see {@link #getTimerResolution()}
+     */
+    @Deprecated
     public static long getTimerMillis() {
         return timerMillis;
     }
 
+    /**
+     * @param timerMillis the timer period
+     * @deprecated timeouts are driven by the dispatchers' timing wheels, see {@link #setTimerResolution(long)}
+     */
+    @Deprecated
     public static void setTimerMillis(long timerMillis) {
         ServerConfig.timerMillis = timerMillis;
     }
@@ -133,4 +187,121 @@ public final class ServerConfig {
     public static void setNoDelay(boolean noDelay) {
         ServerConfig.noDelay = noDelay;
     }
+
+    public static int getDispatcherCount() {
+        return dispatcherCount;
+    }
+
+    public static void setDispatcherCount(int dispatcherCount) {
+        if (dispatcherCount < 1) {
+            throw new IllegalArgumentException("dispatcher count must be positive");
+        }
+        ServerConfig.dispatcherCount = dispatcherCount;
+    }
+
+    public static boolean isLeastLoadBalancing() {
+        return leastLoadBalancing;
+    }
+
+    public static void setLeastLoadBalancing(boolean leastLoadBalancing) {
+        ServerConfig.leastLoadBalancing = leastLoadBalancing;
+    }
+
+    public static boolean isDedicatedAcceptor() {
+        return dedicatedAcceptor;
+    }
+
+    public static void setDedicatedAcceptor(boolean dedicatedAcceptor) {
+        ServerConfig.dedicatedAcceptor = dedicatedAcceptor;
+    }
+
+    public static int getEventBatchSize() {
+        return eventBatchSize;
+    }
+
+    public static void setEventBatchSize(int eventBatchSize) {
+        if (eventBatchSize < 1) {
+            throw new IllegalArgumentException("event batch size must be positive");
+        }
+        ServerConfig.eventBatchSize = eventBatchSize;
+    }
+
+    public static long getTimerResolution() {
+        return timerResolution;
+    }
+
+    public static void setTimerResolution(long timerResolution) {
+        if (timerResolution < 1) {
+            throw new IllegalArgumentException("timer resolution must be positive");
+        }
+        ServerConfig.timerResolution = timerResolution;
+    }
+
+    public static boolean isNonBlockingChannels() {
+        return nonBlockingChannels;
+    }
+
+    public static void setNonBlockingChannels(boolean nonBlockingChannels) {
+        ServerConfig.nonBlockingChannels = nonBlockingChannels;
+    }
+
+    public static boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public static void setVirtualThreads(boolean virtualThreads) {
+        ServerConfig.virtualThreads = virtualThreads;
+    }
+
+    public static int getPipelineDepth() {
+        return pipelineDepth;
+    }
+
+    public static void setPipelineDepth(int pipelineDepth) {
+        if (pipelineDepth < 1) {
+            throw new IllegalArgumentException("pipeline depth must be positive");
+        }
+        ServerConfig.pipelineDepth = pipelineDepth;
+    }
+
+    public static boolean isReusePort() {
+        return reusePort;
+    }
+
+    public static void setReusePort(boolean reusePort) {
+        ServerConfig.reusePort = reusePort;
+    }
+
+    public static int getMaxRequestLineLength() {
+        return maxRequestLineLength;
+    }
+
+    public static void setMaxRequestLineLength(int maxRequestLineLength) {
+        if (maxRequestLineLength < 1) {
+            throw new IllegalArgumentException("request line length must be positive");
+        }
+        ServerConfig.maxRequestLineLength = maxRequestLineLength;
+    }
+
+    public static int getMaxHeaderBytes() {
+        return maxHeaderBytes;
+    }
+
+    public static void setMaxHeaderBytes(int maxHeaderBytes) {
+        if (maxHeaderBytes < 1) {
+            throw new IllegalArgumentException("header bytes must be positive");
+        }
+        ServerConfig.maxHeaderBytes = maxHeaderBytes;
+    }
+
+    public static int getResponseBufferSize() {
+        return responseBufferSize;
+    }
+
+    public static void setResponseBufferSize(int responseBufferSize) {
+        if (responseBufferSize < 1) {
+            throw new IllegalArgumentException("response buffer size must be positive");
+        }
+        ServerConfig.responseBufferSize = responseBufferSize;
+    }
 }
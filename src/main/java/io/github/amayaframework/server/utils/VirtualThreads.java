@@ -0,0 +1,33 @@
+package io.github.amayaframework.server.utils;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Creates executors which run every task on its own virtual thread.
+ * <p>
+ * This is the fallback used before Java 21, the jar also contains
+ * a Java 21 version of this class under META-INF/versions/21.
+ */
+public final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * @return true if the running jvm supports virtual threads
+     */
+    public static boolean isSupported() {
+        return false;
+    }
+
+    /**
+     * Creates an executor which starts a new virtual thread for each task.
+     *
+     * @param prefix the name prefix of the created threads
+     * @return the created executor
+     * @throws UnsupportedOperationException if virtual threads are not supported
+     */
+    public static Executor newExecutor(String prefix) {
+        throw new UnsupportedOperationException("virtual threads require java 21 or later");
+    }
+}
@@ -0,0 +1,31 @@
+package io.github.amayaframework.server.utils;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates executors which run every task on its own virtual thread.
+ */
+public final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * @return true if the running jvm supports virtual threads
+     */
+    public static boolean isSupported() {
+        return true;
+    }
+
+    /**
+     * Creates an executor which starts a new virtual thread for each task.
+     *
+     * @param prefix the name prefix of the created threads
+     * @return the created executor
+     */
+    public static Executor newExecutor(String prefix) {
+        ThreadFactory factory = Thread.ofVirtual().name(prefix, 0).factory();
+        return task -> factory.newThread(task).start();
+    }
+}
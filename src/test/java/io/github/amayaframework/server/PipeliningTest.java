@@ -0,0 +1,121 @@
+package io.github.amayaframework.server;
+
+import io.github.amayaframework.http.HttpCode;
+import io.github.amayaframework.server.interfaces.HttpServer;
+import io.github.amayaframework.server.utils.ServerConfig;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class PipeliningTest {
+    private static final int LARGE_BODY = 8 * 1024 * 1024;
+    private static final int POST_BODY = 1024 * 1024;
+
+    private static HttpServer startServer(ExecutorService executor) throws IOException {
+        boolean nonBlocking = ServerConfig.isNonBlockingChannels();
+        int depth = ServerConfig.getPipelineDepth();
+        ServerConfig.setNonBlockingChannels(true);
+        ServerConfig.setPipelineDepth(4);
+        try {
+            HttpServer server = Servers.httpServer(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.setExecutor(executor);
+            server.createContext("/large", exchange -> {
+                exchange.sendResponse(HttpCode.OK, new byte[LARGE_BODY]);
+            });
+            server.createContext("/upload", exchange -> {
+                InputStream in = exchange.getRequestBody();
+                byte[] buffer = new byte[8192];
+                long total = 0;
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    total += read;
+                }
+                exchange.sendResponse(HttpCode.OK, Long.toString(total).getBytes(StandardCharsets.US_ASCII));
+            });
+            server.start();
+            return server;
+        } finally {
+            ServerConfig.setNonBlockingChannels(nonBlocking);
+            ServerConfig.setPipelineDepth(depth);
+        }
+    }
+
+    /* reads one response with a content length and returns its body, pausing after every given number of bytes */
+    private static byte[] readResponse(InputStream in, int pauseEvery) throws Exception {
+        StringBuilder head = new StringBuilder();
+        while (head.length() < 4 || head.lastIndexOf("\r\n\r\n") != head.length() - 4) {
+            int read = in.read();
+            if (read == -1) {
+                throw new IOException("connection closed in the response head");
+            }
+            head.append((char) read);
+        }
+        assertTrue(head.toString().startsWith("HTTP/1.1 200"), head.toString());
+        int length = -1;
+        for (String line : head.toString().split("\r\n")) {
+            if (line.toLowerCase().startsWith("content-length:")) {
+                length = Integer.parseInt(line.substring(15).trim());
+            }
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        while (body.size() < length) {
+            int read = in.read(buffer, 0, Math.min(buffer.length, length - body.size()));
+            if (read == -1) {
+                throw new IOException("connection closed in the response body");
+            }
+            if (pauseEvery > 0 && body.size() / pauseEvery != (body.size() + read) / pauseEvery) {
+                Thread.sleep(2);
+            }
+            body.write(buffer, 0, read);
+        }
+        return body.toByteArray();
+    }
+
+    @Test
+    public void testNonBlockingLargeResponseWithPipelinedUpload() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        ExecutorService client = Executors.newSingleThreadExecutor();
+        HttpServer server = startServer(executor);
+        try (Socket socket = new Socket("127.0.0.1", server.getAddress().getPort())) {
+            socket.setSoTimeout(10000);
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+            /* the upload is sent while the large response is still being written */
+            Future<?> sent = client.submit(() -> {
+                String requests = "GET /large HTTP/1.1\r\nHost: test\r\n\r\n" +
+                        "POST /upload HTTP/1.1\r\nHost: test\r\nContent-Length: " + POST_BODY + "\r\n\r\n";
+                out.write(requests.getBytes(StandardCharsets.ISO_8859_1));
+                out.flush();
+                /* slowly, so that the upload waits for input while the large response waits for output */
+                byte[] chunk = new byte[16 * 1024];
+                for (int written = 0; written < POST_BODY; written += chunk.length) {
+                    Thread.sleep(5);
+                    out.write(chunk);
+                    out.flush();
+                }
+                return null;
+            });
+            assertEquals(LARGE_BODY, readResponse(in, 64 * 1024).length);
+            assertEquals(Integer.toString(POST_BODY), new String(readResponse(in, 0), StandardCharsets.US_ASCII));
+            sent.get(10, TimeUnit.SECONDS);
+        } finally {
+            server.stop(0);
+            client.shutdownNow();
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package io.github.amayaframework.server;
+
+import io.github.amayaframework.http.HeaderMap;
+import io.github.amayaframework.http.HttpCode;
+import io.github.amayaframework.server.interfaces.HttpExchange;
+import io.github.amayaframework.server.interfaces.HttpServer;
+import io.github.amayaframework.server.utils.ServerConfig;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class RequestParsingTest {
+    private static final BlockingQueue<HttpExchange> completed = new LinkedBlockingQueue<>();
+    private static final BlockingQueue<String> late = new LinkedBlockingQueue<>();
+    private static final CountDownLatch proceed = new CountDownLatch(1);
+    private static ExecutorService executor;
+    private static HttpServer server;
+
+    @BeforeAll
+    public static void start() throws IOException {
+        server = Servers.httpServer(new InetSocketAddress("127.0.0.1", 0), 0);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/header", exchange -> {
+            String value = exchange.getRequestHeaders().getFirst("X-Big");
+            byte[] body = String.valueOf(value == null ? -1 : value.length()).getBytes(StandardCharsets.US_ASCII);
+            exchange.sendResponse(HttpCode.OK, body);
+        });
+        server.createContext("//host", exchange -> {
+            String body = exchange.getHttpContext().getPath() + "|" + exchange.getRawPath() + "|" +
+                    exchange.getRequestURI().getPath();
+            exchange.sendResponse(HttpCode.OK, body.getBytes(StandardCharsets.UTF_8));
+        });
+        server.createContext("/keep", exchange -> {
+            exchange.sendResponse(HttpCode.OK, new byte[0]);
+            completed.add(exchange);
+        });
+        server.createContext("/late", exchange -> {
+            exchange.sendResponseHeaders(HttpCode.OK, -1);
+            exchange.getResponseBody().close();
+            try {
+                proceed.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            late.add(exchange.getRequestHeaders().getFirst("X-Id"));
+        });
+        server.start();
+    }
+
+    @AfterAll
+    public static void stop() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; ++i) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    /* sends a request which closes the connection and returns the whole response */
+    private static String send(String request) throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", server.getAddress().getPort())) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            out.write(request.getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            InputStream in = socket.getInputStream();
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                response.write(buffer, 0, read);
+            }
+            return new String(response.toByteArray(), StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    private static String headerRequest(int valueLength) {
+        return "GET /header HTTP/1.1\r\nHost: test\r\nX-Big: " + repeat('a', valueLength) +
+                "\r\nConnection: close\r\n\r\n";
+    }
+
+    @Test
+    public void testHeaderLargerThanBuffer() throws IOException {
+        String response = send(headerRequest(20000));
+        assertTrue(response.startsWith("HTTP/1.1 200"), response);
+        assertTrue(response.endsWith("\r\n\r\n20000"), response);
+    }
+
+    @Test
+    public void testHeaderBytesLimitAboveBuffer() throws IOException {
+        int max = ServerConfig.getMaxHeaderBytes();
+        ServerConfig.setMaxHeaderBytes(16 * 1024);
+        try {
+            /* the header lines take 40 bytes besides the value of X-Big */
+            int atLimit = 16 * 1024 - 40;
+            String response = send(headerRequest(atLimit));
+            assertTrue(response.startsWith("HTTP/1.1 200"), response);
+            assertTrue(response.endsWith("\r\n\r\n" + atLimit), response);
+            response = send(headerRequest(atLimit + 1));
+            assertTrue(response.startsWith("HTTP/1.1 431"), response);
+        } finally {
+            ServerConfig.setMaxHeaderBytes(max);
+        }
+    }
+
+    @Test
+    public void testRequestLineLimitAboveBuffer() throws IOException {
+        int max = ServerConfig.getMaxRequestLineLength();
+        ServerConfig.setMaxRequestLineLength(12 * 1024);
+        try {
+            /* "GET ", "/header?q=" and " HTTP/1.1" take 23 bytes */
+            String atLimit = "GET /header?q=" + repeat('a', 12 * 1024 - 23) + " HTTP/1.1\r\n";
+            String headers = "Host: test\r\nConnection: close\r\n\r\n";
+            String response = send(atLimit + headers);
+            assertTrue(response.startsWith("HTTP/1.1 200"), response);
+            String tooLong = "GET /header?q=" + repeat('a', 12 * 1024 - 22) + " HTTP/1.1\r\n";
+            response = send(tooLong + headers);
+            assertTrue(response.startsWith("HTTP/1.1 414"), response);
+        } finally {
+            ServerConfig.setMaxRequestLineLength(max);
+        }
+    }
+
+    @Test
+    public void testMalformedEscapeRejected() throws IOException {
+        String response = send("GET /header/a%zz HTTP/1.1\r\nHost: test\r\nConnection: close\r\n\r\n");
+        assertTrue(response.startsWith("HTTP/1.1 400"), response);
+    }
+
+    @Test
+    public void testDoubleSlashPathRoutedConsistently() throws IOException {
+        String response = send("GET //host/x HTTP/1.1\r\nHost: test\r\nConnection: close\r\n\r\n");
+        assertTrue(response.endsWith("\r\n\r\n//host|//host/x|//host/x"), response);
+        response = send("GET //host/x%41 HTTP/1.1\r\nHost: test\r\nConnection: close\r\n\r\n");
+        assertTrue(response.endsWith("\r\n\r\n//host|//host/x%41|//host/xA"), response);
+    }
+
+    /* reads a response head, which has no body */
+    private static String readHead(InputStream in) throws IOException {
+        StringBuilder head = new StringBuilder();
+        while (head.length() < 4 || head.lastIndexOf("\r\n\r\n") != head.length() - 4) {
+            int read = in.read();
+            if (read == -1) {
+                break;
+            }
+            head.append((char) read);
+        }
+        return head.toString();
+    }
+
+    @Test
+    public void testExchangeKeepsTargetAfterCompletion() throws Exception {
+        completed.clear();
+        try (Socket socket = new Socket("127.0.0.1", server.getAddress().getPort())) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+            out.write("GET /keep/first?a=1 HTTP/1.1\r\nHost: test\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            assertTrue(readHead(in).startsWith("HTTP/1.1 200"));
+            HttpExchange first = completed.poll(5, TimeUnit.SECONDS);
+            assertNotNull(first);
+            out.write("GET /keep/second?b=2 HTTP/1.1\r\nHost: test\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            assertTrue(readHead(in).startsWith("HTTP/1.1 200"));
+            assertNotNull(completed.poll(5, TimeUnit.SECONDS));
+            assertEquals("/keep/first", first.getRawPath());
+            assertEquals("a=1", first.getRawQuery());
+            assertEquals("/keep/first", first.getRequestURI().getPath());
+            assertEquals("1", first.getQueryParameters().getFirst("a"));
+        }
+    }
+
+    @Test
+    public void testHandlerKeepsRequestAfterResponseClosed() throws Exception {
+        try (Socket socket = new Socket("127.0.0.1", server.getAddress().getPort())) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+            /* the handler of the first request still runs while the second one is read */
+            out.write("GET /late HTTP/1.1\r\nHost: test\r\nX-Id: first\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            assertTrue(readHead(in).startsWith("HTTP/1.1 200"));
+            out.write("GET /header HTTP/1.1\r\nHost: test\r\nX-Id: second\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            assertTrue(readHead(in).startsWith("HTTP/1.1 200"));
+            proceed.countDown();
+            assertEquals("first", late.poll(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testRequestHeadersFailAfterReuse() throws Exception {
+        completed.clear();
+        try (Socket socket = new Socket("127.0.0.1", server.getAddress().getPort())) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+            out.write("GET /keep HTTP/1.1\r\nHost: test\r\nX-Id: first\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            assertTrue(readHead(in).startsWith("HTTP/1.1 200"));
+            HttpExchange first = completed.poll(5, TimeUnit.SECONDS);
+            assertNotNull(first);
+            HeaderMap headers = first.getRequestHeaders();
+            /* lets the handler return, so that the next request reuses the headers */
+            Thread.sleep(200);
+            out.write("GET /keep HTTP/1.1\r\nHost: test\r\nX-Id: second\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            assertTrue(readHead(in).startsWith("HTTP/1.1 200"));
+            HttpExchange second = completed.poll(5, TimeUnit.SECONDS);
+            assertNotNull(second);
+            assertEquals("second", second.getRequestHeaders().getFirst("X-Id"));
+            assertThrows(IllegalStateException.class, () -> headers.getFirst("X-Id"));
+            assertThrows(IllegalStateException.class, () -> first.getRequestHeaders().get("X-Id"));
+        }
+    }
+}